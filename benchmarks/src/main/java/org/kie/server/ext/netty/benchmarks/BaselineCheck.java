@@ -0,0 +1,95 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares JMH results in CSV format (<code>-rf csv</code>) to a baseline and lists the benchmarks that got 
+ * slower, or allocate more per operation with <code>-prof gc</code>, by more than a threshold and more than 
+ * the error margins of both runs. Exits with 1 if there is any.
+ * <p>
+ * Usage: <code>BaselineCheck baseline.csv results.csv [threshold percent, 10 by default]</code>
+ */
+public class BaselineCheck {
+    
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCheck baseline.csv results.csv [threshold percent]");
+            System.exit(2);
+        }
+        Map<String, double[]> baseline = read(args[0]);
+        Map<String, double[]> results = read(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+        int regressions = 0;
+        for (Map.Entry<String, double[]> result : results.entrySet()) {
+            double[] base = baseline.get(result.getKey());
+            if (base == null) {
+                continue;
+            }
+            double[] now = result.getValue();
+            double delta = now[0] - base[0];
+            if (delta > base[0] * threshold && delta > base[1] + now[1]) {
+                System.out.printf("REGRESSION %s: %.3f -> %.3f (%+.1f%%)%n", result.getKey(), base[0], now[0], 100 * delta / base[0]);
+                regressions++;
+            }
+        }
+        System.out.printf("%d result(s) compared, %d regression(s)%n", results.size(), regressions);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+    
+    /**
+     * @return score and error by benchmark and parameters, for the primary results and the normalized allocation rate
+     */
+    private static Map<String, double[]> read(String file) throws IOException {
+        Map<String, double[]> scores = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        List<String> header = fields(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> fields = fields(line);
+            String name = fields.get(benchmark);
+            if (name.contains(":") && !name.endsWith(ALLOCATION)) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(name);
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                }
+            }
+            String errorValue = fields.get(error);
+            scores.put(key.toString(), new double[] {Double.parseDouble(fields.get(score)), 
+                                                     errorValue.isEmpty() || errorValue.equals("NaN") ? 0 : Double.parseDouble(errorValue)});
+        }
+        return scores;
+    }
+    
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.command.impl.GenericCommand;
+import org.drools.core.command.runtime.BatchExecutionCommandImpl;
+import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.drools.core.command.runtime.rule.InsertObjectCommand;
+import org.kie.server.ext.netty.codec.Codec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Encodes and decodes batches of inserts followed by a fire all rules.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+    
+    @Param({"1", "100", "10000"})
+    private int commands;
+    
+    @Param({"small", "large"})
+    private String fact;
+    
+    @Param({"heap", "pooled"})
+    private String buffer;
+    
+    private Codec codec;
+    
+    private BatchExecutionCommandImpl batch;
+    
+    private ByteBuf encoded;
+    
+    @Setup
+    public void setup() throws Exception {
+        codec = new Codec();
+        codec.setMarshaller(Facts.newMarshaller());
+        List<GenericCommand<?>> list = new ArrayList<>(commands);
+        for (int i = 0; i < commands - 1; i++) {
+            list.add(new InsertObjectCommand(Facts.fact(fact, i), "fact-" + i));
+        }
+        list.add(new FireAllRulesCommand("fired"));
+        batch = new BatchExecutionCommandImpl(list);
+        encoded = Buffers.allocate(buffer);
+        codec.encodeCommand(batch, encoded);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        encoded.release();
+    }
+    
+    @Benchmark
+    public int encode() {
+        ByteBuf byteBuf = Buffers.allocate(buffer);
+        try {
+            codec.encodeCommand(batch, byteBuf);
+            return byteBuf.writerIndex();
+        } finally {
+            byteBuf.release();
+        }
+    }
+    
+    @Benchmark
+    public Object decode() {
+        encoded.readerIndex(0);
+        return codec.decodeCommand(encoded);
+    }
+
+}
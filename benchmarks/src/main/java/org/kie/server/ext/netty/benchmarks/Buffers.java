@@ -0,0 +1,31 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * The buffer kinds compared by the benchmarks: unpooled heap buffers and pooled direct buffers,
+ * the default of the server.
+ */
+public class Buffers {
+    
+    private static final UnpooledByteBufAllocator HEAP = new UnpooledByteBufAllocator(false);
+    
+    /**
+     * @param kind <code>heap</code> or <code>pooled</code>
+     */
+    public static ByteBuf allocate(String kind) {
+        return "heap".equals(kind) ? HEAP.heapBuffer() : PooledByteBufAllocator.DEFAULT.directBuffer();
+    }
+    
+    /**
+     * @return a buffer of the given kind holding a copy of the given bytes
+     */
+    public static ByteBuf copy(String kind, ByteBuf bytes) {
+        ByteBuf copy = allocate(kind);
+        copy.writeBytes(bytes, bytes.readerIndex(), bytes.readableBytes());
+        return copy;
+    }
+
+}
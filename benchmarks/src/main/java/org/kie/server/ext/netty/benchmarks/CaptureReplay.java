@@ -0,0 +1,301 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.kie.server.ext.netty.CaptureReader;
+import org.kie.server.ext.netty.CaptureWriter;
+import org.kie.server.ext.netty.CapturedFrame;
+import org.kie.server.ext.netty.codec.Codec;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+import org.kie.server.ext.netty.codec.ControlFrameEncoder;
+import org.kie.server.ext.netty.codec.Handshake;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+/**
+ * Replays the requests recorded by a {@link CaptureWriter} against a server, to benchmark a change with the
+ * request mix of a real workload. The server must run the containers of the capture, in the same versions
+ * for requests in the compact format.
+ * <p>
+ * Every connection of the capture is replayed on a connection of its own, opened when its first request is
+ * due, so that the requests of a connection are received in the order they were captured. Requests are sent
+ * at the time they were received, relative to the first request, divided by the speed. As with {@link LoadTest},
+ * latencies are measured from the time each request was due to be sent.
+ * <p>
+ * Options are given as <code>name=value</code> arguments:
+ * <ul>
+ * <li><code>capture</code>: comma separated capture files or directories, required</li>
+ * <li><code>host</code> and <code>port</code>: the server, localhost:8888 by default</li>
+ * <li><code>speed</code>: how much faster than captured requests are sent, 1 by default, 0 to send them as fast as possible</li>
+ * <li><code>drain</code>: seconds to wait for the last responses, 10 by default</li>
+ * <li><code>histogram</code>: file the full latency distribution is written to, none by default</li>
+ * </ul>
+ */
+public class CaptureReplay {
+
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private final Map<String, String> options = new HashMap<>();
+
+    private final Map<String, ReplayConnection> connections = new HashMap<>();
+
+    private final Recorder recorder = new Recorder(TimeUnit.MINUTES.toNanos(1), 3);
+
+    private final LongAdder responses = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final Codec codec = new Codec();
+
+    private EventLoopGroup group;
+
+    public static void main(String[] args) throws Exception {
+        new CaptureReplay(args).run();
+        System.exit(0);
+    }
+
+    public CaptureReplay(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Options are given as name=value: " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public void run() throws Exception {
+        String capture = option("capture", null);
+        if (capture == null) {
+            throw new IllegalArgumentException("No capture given");
+        }
+        List<Path> files = new ArrayList<>();
+        for (String file : capture.split(",")) {
+            files.add(Paths.get(file));
+        }
+        double speed = Double.parseDouble(option("speed", "1"));
+        group = new NioEventLoopGroup();
+        try {
+            CaptureReader reader = new CaptureReader(files);
+            long sent = 0;
+            long first = 0;
+            long start = System.nanoTime();
+            for (CapturedFrame frame = reader.next(); frame != null; frame = reader.next()) {
+                // captures of several server runs follow each other on the wall clock
+                long time = TimeUnit.MILLISECONDS.toNanos(frame.getCaptureStart()) + frame.getTimestamp();
+                if (sent == 0) {
+                    first = time;
+                }
+                long due = speed > 0 ? start + (long) ((time - first) / speed) : System.nanoTime();
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                connection(frame).send(frame, due);
+                sent++;
+            }
+            if (sent == 0) {
+                throw new IllegalArgumentException("No requests captured in " + capture);
+            }
+            long duration = System.nanoTime() - start;
+            drain(Integer.parseInt(option("drain", "10")));
+            report(sent, duration);
+        } finally {
+            for (ReplayConnection connection : connections.values()) {
+                connection.channel.close();
+            }
+            group.shutdownGracefully();
+        }
+    }
+
+    private ReplayConnection connection(CapturedFrame frame) throws Exception {
+        String key = frame.getCaptureStart() + "/" + frame.getConnection();
+        ReplayConnection connection = connections.get(key);
+        if (connection == null) {
+            connection = new ReplayConnection();
+            connection.connect();
+            connections.put(key, connection);
+        }
+        return connection;
+    }
+
+    private void drain(int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (unanswered() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private long unanswered() {
+        long unanswered = 0;
+        for (ReplayConnection connection : connections.values()) {
+            unanswered += connection.pending.size() + connection.uncorrelated.size();
+        }
+        return unanswered;
+    }
+
+    private void report(long sent, long duration) throws Exception {
+        Histogram histogram = recorder.getIntervalHistogram();
+        System.out.printf("Replayed %d requests over %d connections in %.1f s (%.0f req/s)%n", sent, connections.size(),
+                          duration / 1e9, sent / (duration / 1e9));
+        System.out.printf("%d responses, %d errors, %d unanswered%n", responses.sum(), errors.sum(), unanswered());
+        System.out.printf("latency ms: p50 %.3f, p99 %.3f, p99.9 %.3f, p99.99 %.3f, max %.3f%n",
+                          millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                          millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getValueAtPercentile(99.99)),
+                          millis(histogram.getMaxValue()));
+        String file = option("histogram", null);
+        if (file != null) {
+            try (PrintStream out = new PrintStream(new File(file))) {
+                histogram.outputPercentileDistribution(out, 1000000.0);
+            }
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    /**
+     * @return true if the server answers the frame: it is not one-way, nor a chunk other than the last of a batch
+     */
+    private boolean expectsResponse(ByteBuf frame) {
+        if (!codec.isCorrelated(frame)) {
+            return true;
+        }
+        byte flags = frame.getByte(frame.readerIndex() + 9);
+        if ((flags & ContainerCommand.FLAG_ONE_WAY) != 0) {
+            return false;
+        }
+        int index = codec.containerIdIndex(frame);
+        int command = index + 4 + Math.max(0, frame.getInt(index));
+        ByteBuf body = frame.duplicate().readerIndex(command);
+        return !codec.isBatchChunk(body) || frame.getBoolean(command + 1);
+    }
+
+    private class ReplayConnection {
+
+        private Channel channel;
+
+        private final CompletableFuture<Void> handshake = new CompletableFuture<>();
+
+        // due times of the correlated requests waiting for a response, by request id
+        private final ConcurrentMap<Long, Long> pending = new ConcurrentHashMap<>();
+
+        // due times of the uncorrelated requests, answered in order
+        private final Queue<Long> uncorrelated = new ConcurrentLinkedQueue<>();
+
+        private void connect() throws Exception {
+            channel = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) throws Exception {
+                            ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4));
+                            ch.pipeline().addLast(new LengthFieldPrepender(4));
+                            ch.pipeline().addLast(new ControlFrameEncoder());
+                            ch.pipeline().addLast(new ResponseHandler(ReplayConnection.this));
+                        }
+                    })
+                    .connect(option("host", "localhost"), Integer.parseInt(option("port", "8888"))).sync().channel();
+            // captured frames are decompressed, so compression is not asked for
+            channel.writeAndFlush(new Handshake(Handshake.PROTOCOL_VERSION, Handshake.CAPABILITY_PIPELINING | Handshake.CAPABILITY_COMPACT));
+            handshake.get(10, TimeUnit.SECONDS);
+        }
+
+        private void send(CapturedFrame frame, long due) {
+            ByteBuf buffer = Unpooled.wrappedBuffer(frame.getFrame());
+            if (expectsResponse(buffer)) {
+                if (codec.isCorrelated(buffer)) {
+                    pending.put(buffer.getLong(buffer.readerIndex() + 1), due);
+                } else {
+                    uncorrelated.add(due);
+                }
+            }
+            channel.writeAndFlush(buffer);
+        }
+
+    }
+
+    private class ResponseHandler extends ChannelInboundHandlerAdapter {
+
+        private final ReplayConnection connection;
+
+        private ResponseHandler(ReplayConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ByteBuf frame = (ByteBuf) msg;
+            try {
+                long now = System.nanoTime();
+                byte first = frame.getByte(frame.readerIndex());
+                if (first == Codec.FRAME_HANDSHAKE) {
+                    connection.handshake.complete(null);
+                } else if (codec.isCorrelated(frame)) {
+                    Long due = connection.pending.remove(frame.getLong(frame.readerIndex() + 1));
+                    if (frame.getByte(frame.readerIndex() + 10) != ContainerExecutionResults.STATUS_OK) {
+                        errors.increment();
+                    }
+                    if (due != null) {
+                        responses.increment();
+                        recorder.recordValue(now - due);
+                    }
+                } else if (codec.controlFrame(frame) == 0) {
+                    Long due = connection.uncorrelated.poll();
+                    if (due != null) {
+                        responses.increment();
+                        recorder.recordValue(now - due);
+                    }
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            connection.handshake.completeExceptionally(cause);
+            cause.printStackTrace();
+            ctx.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.command.runtime.process.StartProcessCommand;
+import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.drools.core.command.runtime.rule.InsertElementsCommand;
+import org.drools.core.command.runtime.rule.InsertObjectCommand;
+import org.kie.api.command.Command;
+import org.kie.server.ext.netty.codec.Codec;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Encodes and decodes a correlated request frame for each opcode, the way <code>CommandEncoder</code> 
+ * and the server's <code>CommandDecoder</code> do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    
+    private static final int ELEMENTS = 10;
+    
+    @Param({"insert", "insertEvent", "insertElements", "fire", "startProcess"})
+    private String opcode;
+    
+    @Param({"small", "large"})
+    private String fact;
+    
+    @Param({"heap", "pooled"})
+    private String buffer;
+    
+    private Codec codec;
+    
+    private ContainerCommand command;
+    
+    private ByteBuf encoded;
+    
+    @Setup
+    public void setup() throws Exception {
+        codec = new Codec();
+        codec.setMarshaller(Facts.newMarshaller());
+        command = command();
+        encoded = Buffers.allocate(buffer);
+        codec.encodeContainerCommand(command, encoded);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        encoded.release();
+    }
+    
+    private ContainerCommand command() {
+        byte flags = 0;
+        Command<?> command;
+        switch (opcode) {
+            case "insert":
+                command = new InsertObjectCommand(Facts.fact(fact, 0), "fact");
+                break;
+            case "insertEvent":
+                flags = ContainerCommand.FLAG_ONE_WAY;
+                command = new InsertObjectCommand(Facts.fact(fact, 0));
+                break;
+            case "insertElements":
+                List<Object> facts = new ArrayList<>();
+                for (int i = 0; i < ELEMENTS; i++) {
+                    facts.add(Facts.fact(fact, i));
+                }
+                InsertElementsCommand insertElements = new InsertElementsCommand(facts);
+                insertElements.setOutIdentifier("facts");
+                command = insertElements;
+                break;
+            case "fire":
+                command = new FireAllRulesCommand("fired");
+                break;
+            case "startProcess":
+                Map<String, Object> parameters = new HashMap<>();
+                parameters.put("fact", Facts.fact(fact, 0));
+                command = new StartProcessCommand("process", parameters, "process");
+                break;
+            default:
+                throw new IllegalArgumentException(opcode);
+        }
+        return new ContainerCommand(1L, flags, "container", command);
+    }
+    
+    @Benchmark
+    public int encode() {
+        ByteBuf byteBuf = Buffers.allocate(buffer);
+        try {
+            codec.encodeContainerCommand(command, byteBuf);
+            return byteBuf.writerIndex();
+        } finally {
+            byteBuf.release();
+        }
+    }
+    
+    @Benchmark
+    public Object decode() {
+        encoded.readerIndex(0);
+        codec.decodeRequestId(encoded);
+        codec.decodeFlags(encoded);
+        codec.decodeString(encoded);
+        return codec.decodeCommand(encoded);
+    }
+
+}
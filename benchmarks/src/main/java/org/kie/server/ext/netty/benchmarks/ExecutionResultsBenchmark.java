@@ -0,0 +1,88 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.runtime.impl.ExecutionResultImpl;
+import org.kie.server.ext.netty.codec.Codec;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Encodes and decodes a correlated response holding the inserted facts and a fire count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutionResultsBenchmark {
+    
+    private static final int FACTS = 10;
+    
+    @Param({"small", "large"})
+    private String fact;
+    
+    @Param({"heap", "pooled"})
+    private String buffer;
+    
+    private Codec codec;
+    
+    private ContainerExecutionResults results;
+    
+    private ByteBuf encoded;
+    
+    @Setup
+    public void setup() throws Exception {
+        codec = new Codec();
+        codec.setMarshaller(Facts.newMarshaller());
+        HashMap<String, Object> values = new HashMap<>();
+        for (int i = 0; i < FACTS; i++) {
+            values.put("fact-" + i, Facts.fact(fact, i));
+        }
+        values.put("fired", 42);
+        ExecutionResultImpl executionResults = new ExecutionResultImpl();
+        executionResults.setResults(values);
+        results = new ContainerExecutionResults(1L, (byte) 0, "container", executionResults);
+        encoded = Buffers.allocate(buffer);
+        codec.encodeContainerExecutionResults(results, encoded);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        encoded.release();
+    }
+    
+    @Benchmark
+    public int encode() {
+        ByteBuf byteBuf = Buffers.allocate(buffer);
+        try {
+            codec.encodeContainerExecutionResults(results, byteBuf);
+            return byteBuf.writerIndex();
+        } finally {
+            byteBuf.release();
+        }
+    }
+    
+    @Benchmark
+    public Object decode() {
+        encoded.readerIndex(0);
+        return codec.decodeContainerExecutionResults(encoded);
+    }
+
+}
@@ -0,0 +1,160 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.infinispan.protostream.FileDescriptorSource;
+import org.infinispan.protostream.MessageMarshaller;
+import org.infinispan.protostream.SerializationContext;
+import org.kie.server.ext.netty.marshaller.ProtoStreamMarshaller;
+
+/**
+ * The facts used by the benchmarks: a small <code>Reading</code> of a few scalar fields, and a large
+ * <code>Document</code> holding a 4 KB text and 32 readings.
+ */
+public class Facts {
+    
+    public static final String PROTO = 
+            "package benchmarks;\n" +
+            "message Reading {\n" +
+            "  required string sensor = 1;\n" +
+            "  required double value = 2;\n" +
+            "  required int64 timestamp = 3;\n" +
+            "}\n" +
+            "message Document {\n" +
+            "  required string id = 1;\n" +
+            "  required string body = 2;\n" +
+            "  repeated Reading readings = 3;\n" +
+            "}\n";
+    
+    public static final int BODY_SIZE = 4096;
+    
+    public static final int READINGS = 32;
+    
+    public static ProtoStreamMarshaller newMarshaller() throws IOException {
+        ProtoStreamMarshaller marshaller = new ProtoStreamMarshaller();
+        SerializationContext ctx = marshaller.getSerializationContext();
+        ctx.registerProtoFiles(new FileDescriptorSource().addProtoFile("benchmarks.proto", PROTO));
+        ctx.registerMarshaller(new ReadingMarshaller());
+        ctx.registerMarshaller(new DocumentMarshaller());
+        return marshaller;
+    }
+    
+    /**
+     * @param size <code>small</code> or <code>large</code>
+     */
+    public static Object fact(String size, int i) {
+        if ("small".equals(size)) {
+            return new Reading("sensor-" + (i % 64), i * 0.5, 1500000000000L + i);
+        }
+        StringBuilder body = new StringBuilder(BODY_SIZE);
+        while (body.length() < BODY_SIZE) {
+            body.append("lorem ipsum dolor sit amet ");
+        }
+        body.setLength(BODY_SIZE);
+        List<Reading> readings = new ArrayList<>(READINGS);
+        for (int r = 0; r < READINGS; r++) {
+            readings.add(new Reading("sensor-" + r, r * 0.25, 1500000000000L + r));
+        }
+        return new Document("doc-" + i, body.toString(), readings);
+    }
+    
+    public static class Reading {
+        
+        private final String sensor;
+        
+        private final double value;
+        
+        private final long timestamp;
+
+        public Reading(String sensor, double value, long timestamp) {
+            this.sensor = sensor;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        public String getSensor() {
+            return sensor;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+        
+    }
+    
+    public static class Document {
+        
+        private final String id;
+        
+        private final String body;
+        
+        private final List<Reading> readings;
+
+        public Document(String id, String body, List<Reading> readings) {
+            this.id = id;
+            this.body = body;
+            this.readings = readings;
+        }
+        
+    }
+    
+    public static class ReadingMarshaller implements MessageMarshaller<Reading> {
+
+        @Override
+        public Class<? extends Reading> getJavaClass() {
+            return Reading.class;
+        }
+
+        @Override
+        public String getTypeName() {
+            return "benchmarks.Reading";
+        }
+
+        @Override
+        public Reading readFrom(ProtoStreamReader reader) throws IOException {
+            return new Reading(reader.readString("sensor"), reader.readDouble("value"), reader.readLong("timestamp"));
+        }
+
+        @Override
+        public void writeTo(ProtoStreamWriter writer, Reading reading) throws IOException {
+            writer.writeString("sensor", reading.sensor);
+            writer.writeDouble("value", reading.value);
+            writer.writeLong("timestamp", reading.timestamp);
+        }
+        
+    }
+    
+    public static class DocumentMarshaller implements MessageMarshaller<Document> {
+
+        @Override
+        public Class<? extends Document> getJavaClass() {
+            return Document.class;
+        }
+
+        @Override
+        public String getTypeName() {
+            return "benchmarks.Document";
+        }
+
+        @Override
+        public Document readFrom(ProtoStreamReader reader) throws IOException {
+            return new Document(reader.readString("id"), reader.readString("body"), 
+                                reader.readCollection("readings", new ArrayList<Reading>(), Reading.class));
+        }
+
+        @Override
+        public void writeTo(ProtoStreamWriter writer, Document document) throws IOException {
+            writer.writeString("id", document.id);
+            writer.writeString("body", document.body);
+            writer.writeCollection("readings", document.readings, Reading.class);
+        }
+        
+    }
+
+}
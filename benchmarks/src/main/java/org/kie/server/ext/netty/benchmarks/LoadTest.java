@@ -0,0 +1,220 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.drools.core.command.impl.GenericCommand;
+import org.drools.core.command.runtime.BatchExecutionCommandImpl;
+import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.drools.core.command.runtime.rule.InsertObjectCommand;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.server.ext.netty.LatencySnapshot;
+import org.kie.server.ext.netty.PipelineMetrics;
+import org.kie.server.ext.netty.RequestMetrics;
+import org.kie.server.ext.netty.client.NettyClient;
+import org.kie.server.ext.netty.client.NettyClientConfig;
+
+import io.netty.channel.epoll.Epoll;
+
+/**
+ * Open loop load test of the server pipeline, from the frame decoder to the results encoder, started in-process
+ * by {@link LoadTestServer} and driven by a {@link NettyClient} over loopback.
+ * <p>
+ * Requests are sent at a fixed rate whatever the response times, each one a batch of inserts followed by a fire all
+ * rules. The latency of a request is measured from the time it was due to be sent, not from the time it was sent, so 
+ * that a stalled server or client shows in the latencies of all the requests it delayed (coordinated omission).
+ * <p>
+ * Options are given as <code>name=value</code> arguments. The <code>executor</code>, <code>transport</code> and 
+ * <code>batch</code> options take comma separated values, every combination is run in turn and the results are
+ * summarized in a table at the end:
+ * <ul>
+ * <li><code>rate</code>: requests per second, 10000 by default</li>
+ * <li><code>connections</code>: client connections, 4 by default</li>
+ * <li><code>duration</code> and <code>warmup</code>: seconds measured, 30 by default, after seconds of warm up, 5 by default</li>
+ * <li><code>batch</code>: inserts per request, 1 by default</li>
+ * <li><code>fact</code>: <code>small</code> or <code>large</code> facts, small by default</li>
+ * <li><code>executor</code>: <code>eventloop</code>, <code>group</code> or <code>lanes</code>, eventloop by default</li>
+ * <li><code>executorThreads</code>: threads of the executor group, 4 by default</li>
+ * <li><code>transport</code>: <code>nio</code> or <code>epoll</code>, nio by default</li>
+ * <li><code>workerThreads</code>: server event loop threads, 0 for Netty's default</li>
+ * <li><code>serviceTime</code>: microseconds spent by the stub rules execution service per request, 0 by default, 
+ * or <code>real</code> to run the rules of a sample kjar</li>
+ * <li><code>histograms</code>: directory the full latency distribution of each run is written to, none by default</li>
+ * </ul>
+ */
+public class LoadTest {
+    
+    static final String FIRED = "fired";
+    
+    private final Map<String, String> options = new HashMap<>();
+    
+    private final List<String> summary = new ArrayList<>();
+    
+    public static void main(String[] args) throws Exception {
+        new LoadTest(args).run();
+        System.exit(0);
+    }
+    
+    public LoadTest(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Options are given as name=value: " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+    }
+    
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+    
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+    
+    private List<String> values(String name, String defaultValue) {
+        return Arrays.asList(option(name, defaultValue).split(","));
+    }
+    
+    public void run() throws Exception {
+        for (String transport : values("transport", "nio")) {
+            for (String executor : values("executor", "eventloop")) {
+                for (String batch : values("batch", "1")) {
+                    run(transport, executor, Integer.parseInt(batch));
+                }
+            }
+        }
+        System.out.println();
+        System.out.println(String.format("%-8s %-10s %6s %10s %9s %9s %9s %9s %9s %7s", 
+                                         "transport", "executor", "batch", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "p99.99 ms", "max ms", "failed"));
+        summary.forEach(System.out::println);
+    }
+    
+    private void run(String transport, String executor, int batch) throws Exception {
+        boolean epoll = "epoll".equals(transport);
+        if (epoll && !Epoll.isAvailable()) {
+            System.out.println("Skipping epoll, not available: " + Epoll.unavailabilityCause());
+            return;
+        }
+        int rate = intOption("rate", 10000);
+        String serviceTime = option("serviceTime", "0");
+        System.out.printf("Running %s, %s, batch of %d at %d req/s%n", transport, executor, batch, rate);
+        try (LoadTestServer server = new LoadTestServer(epoll, intOption("workerThreads", 0), executor, intOption("executorThreads", 4), 
+                                                        "real".equals(serviceTime) ? -1 : Long.parseLong(serviceTime))) {
+            NettyClientConfig config = new NettyClientConfig();
+            config.setConnectionsPerNode(intOption("connections", 4));
+            config.setPreferEpoll(epoll);
+            config.setMaxFrameLength(16 * 1024 * 1024);
+            try (NettyClient client = new NettyClient(Facts.newMarshaller(), config, server.getAddress())) {
+                awaitConnected(client);
+                Recorder recorder = new Recorder(TimeUnit.MINUTES.toNanos(1), 3);
+                drive(client, batch, rate, intOption("warmup", 5), null);
+                server.getPipelineMetrics().reset();
+                long sent = drive(client, batch, rate, intOption("duration", 30), recorder);
+                // let the requests in flight complete
+                Thread.sleep(1000);
+                report(transport, executor, batch, sent, recorder.getIntervalHistogram());
+                printStages(server.getPipelineMetrics());
+            }
+        }
+    }
+    
+    private void awaitConnected(NettyClient client) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (client.execute(LoadTestServer.CONTAINER_ID, new FireAllRulesCommand(FIRED)).handle((r, t) -> t == null).join() == false) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Could not connect to the server");
+            }
+            Thread.sleep(10);
+        }
+    }
+    
+    /**
+     * Sends requests at the given rate for the given number of seconds, from this thread. Latencies are 
+     * not recorded without a recorder, during warm up.
+     * 
+     * @return the number of requests sent
+     */
+    private long drive(NettyClient client, int batch, int rate, int seconds, Recorder recorder) {
+        String fact = option("fact", "small");
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long sent = 0;
+        for (long due = start; due < end; due += interval) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long intended = due;
+            CompletableFuture<ExecutionResults> response = client.execute(LoadTestServer.CONTAINER_ID, batch(batch, fact, sent));
+            if (recorder != null) {
+                response.thenRun(() -> recorder.recordValue(System.nanoTime() - intended));
+            }
+            sent++;
+        }
+        return sent;
+    }
+    
+    private BatchExecutionCommandImpl batch(int size, String fact, long sequence) {
+        List<GenericCommand<?>> commands = new ArrayList<>(size + 1);
+        for (int i = 0; i < size; i++) {
+            commands.add(new InsertObjectCommand(Facts.fact(fact, (int) (sequence * size + i))));
+        }
+        commands.add(new FireAllRulesCommand(FIRED));
+        return new BatchExecutionCommandImpl(commands);
+    }
+    
+    /**
+     * Adds a line to the summary. Requests that failed or were not answered in time are counted as failed.
+     */
+    private void report(String transport, String executor, int batch, long sent, Histogram histogram) throws FileNotFoundException {
+        double duration = intOption("duration", 30);
+        summary.add(String.format("%-8s %-10s %6d %10.0f %9.3f %9.3f %9.3f %9.3f %9.3f %7d", transport, executor, batch, 
+                                  histogram.getTotalCount() / duration, millis(histogram.getValueAtPercentile(50)), 
+                                  millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)), 
+                                  millis(histogram.getValueAtPercentile(99.99)), millis(histogram.getMaxValue()), sent - histogram.getTotalCount()));
+        String directory = option("histograms", null);
+        if (directory != null) {
+            new File(directory).mkdirs();
+            try (PrintStream out = new PrintStream(new File(directory, transport + "-" + executor + "-" + batch + ".hgrm"))) {
+                histogram.outputPercentileDistribution(out, 1000000.0);
+            }
+        }
+    }
+    
+    /**
+     * Prints where the server spent the time of the requests, as measured by its pipeline metrics.
+     */
+    private void printStages(PipelineMetrics metrics) {
+        for (RequestMetrics request : metrics.getRequestMetrics()) {
+            if (request.getRequests() == 0) {
+                continue;
+            }
+            System.out.printf("  %s: %d requests, p50/p99 ms unmarshal %s, queue %s, execute %s, marshal %s, flush %s%n", 
+                              request.getOpcode(), request.getRequests(), stage(request.getUnmarshal()), stage(request.getQueue()), 
+                              stage(request.getExecute()), stage(request.getMarshal()), stage(request.getFlush()));
+        }
+    }
+    
+    private static String stage(LatencySnapshot snapshot) {
+        return String.format("%.3f/%.3f", millis(snapshot.getP50()), millis(snapshot.getP99()));
+    }
+    
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+}
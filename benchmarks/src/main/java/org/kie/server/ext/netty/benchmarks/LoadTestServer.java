@@ -0,0 +1,139 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Scanner;
+
+import org.drools.compiler.kie.builder.impl.InternalKieContainer;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message;
+import org.kie.api.builder.ReleaseId;
+import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.ext.netty.AdmissionControl;
+import org.kie.server.ext.netty.AllocationMetrics;
+import org.kie.server.ext.netty.ExecutorLanes;
+import org.kie.server.ext.netty.MarshallerRegistry;
+import org.kie.server.ext.netty.NettyServerInitializer;
+import org.kie.server.ext.netty.PipelineMetrics;
+import org.kie.server.ext.netty.SubscriptionRegistry;
+import org.kie.server.ext.netty.codec.FrameCompressor;
+import org.kie.server.ext.netty.codec.Handshake;
+import org.kie.server.services.drools.RulesExecutionService;
+import org.kie.server.services.impl.KieContainerInstanceImpl;
+import org.kie.server.services.impl.KieServerRegistryImpl;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * The server pipeline of the extension, started in-process on a loopback port with a single container, 
+ * either backed by the stub rules execution service or by a kjar built on the fly from <code>load-test.drl</code>.
+ */
+public class LoadTestServer implements AutoCloseable {
+    
+    public static final String CONTAINER_ID = "load-test";
+    
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    
+    private final EventLoopGroup bossGroup;
+    
+    private final EventLoopGroup workerGroup;
+    
+    private final EventExecutorGroup eventExecutorGroup;
+    
+    private final ExecutorLanes lanes;
+    
+    private final MarshallerRegistry marshallerRegistry;
+    
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    
+    private final Channel channel;
+    
+    /**
+     * @param executor <code>eventloop</code>, <code>group</code> or <code>lanes</code>
+     * @param serviceTimeMicros the service time of the stub, or -1 to execute the rules of the sample kjar
+     */
+    public LoadTestServer(boolean epoll, int workerThreads, String executor, int executorThreads, long serviceTimeMicros) throws Exception {
+        KieServerRegistryImpl registry = new KieServerRegistryImpl();
+        RulesExecutionService rulesExecutionService;
+        if (serviceTimeMicros < 0) {
+            registry.registerContainer(CONTAINER_ID, new KieContainerInstanceImpl(CONTAINER_ID, KieContainerStatus.STARTED, buildSampleKjar()));
+            rulesExecutionService = new RulesExecutionService(registry);
+        } else {
+            registry.registerContainer(CONTAINER_ID, new KieContainerInstanceImpl(CONTAINER_ID, KieContainerStatus.STARTED));
+            rulesExecutionService = new StubRulesExecutionService(registry, serviceTimeMicros);
+        }
+        marshallerRegistry = new MarshallerRegistry((id, kci) -> new MarshallerRegistry.Version(null, Facts.newMarshaller(), null));
+        marshallerRegistry.create(CONTAINER_ID, registry.getContainer(CONTAINER_ID));
+        
+        eventExecutorGroup = "group".equals(executor) ? new DefaultEventExecutorGroup(executorThreads) : null;
+        lanes = "lanes".equals(executor) ? new ExecutorLanes(1024, 256, registry) : null;
+        AdmissionControl admission = new AdmissionControl(1024, 4096, false, registry);
+        NettyServerInitializer initializer = new NettyServerInitializer(registry, marshallerRegistry, 
+                                                                        Handshake.CAPABILITY_PIPELINING | Handshake.CAPABILITY_COMPACT, 
+                                                                        rulesExecutionService, eventExecutorGroup, lanes, null, 
+                                                                        new AllocationMetrics(), pipelineMetrics, null, admission, new SubscriptionRegistry(), 
+                                                                        MAX_FRAME_LENGTH, 16, 64L * 1024 * 1024, FrameCompressor.DEFAULT_THRESHOLD, 1024);
+        bossGroup = epoll ? new EpollEventLoopGroup(1) : new NioEventLoopGroup(1);
+        workerGroup = epoll ? new EpollEventLoopGroup(workerThreads) : new NioEventLoopGroup(workerThreads);
+        channel = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(initializer)
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+    }
+    
+    private static InternalKieContainer buildSampleKjar() throws IOException {
+        KieServices ks = KieServices.Factory.get();
+        ReleaseId releaseId = ks.newReleaseId("org.kie.server.ext.netty", "load-test-kjar", "1.0.0");
+        KieFileSystem kfs = ks.newKieFileSystem();
+        kfs.generateAndWritePomXML(releaseId);
+        kfs.writeKModuleXML(ks.newKieModuleModel().toXML());
+        try (InputStream drl = LoadTestServer.class.getResourceAsStream("load-test.drl"); 
+             Scanner scanner = new Scanner(drl, "UTF-8")) {
+            kfs.write("src/main/resources/benchmarks/load-test.drl", scanner.useDelimiter("\\A").next());
+        }
+        KieBuilder builder = ks.newKieBuilder(kfs).buildAll();
+        if (builder.getResults().hasMessages(Message.Level.ERROR)) {
+            throw new IllegalStateException("Sample kjar does not build: " + builder.getResults().getMessages());
+        }
+        return (InternalKieContainer) ks.newKieContainer(releaseId);
+    }
+    
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) channel.localAddress();
+    }
+    
+    public PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
+    @Override
+    public void close() {
+        channel.close().syncUninterruptibly();
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
+        if (eventExecutorGroup != null) {
+            eventExecutorGroup.shutdownGracefully();
+        }
+        if (lanes != null) {
+            lanes.shutdown();
+        }
+        marshallerRegistry.shutdown();
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.kie.server.ext.netty.marshaller.ProtoStreamMarshaller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Marshalls and unmarshalls a fact with the <code>ProtoStreamMarshaller</code>, as a message wrapped with 
+ * its type name and in compact form.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshallerBenchmark {
+    
+    @Param({"small", "large"})
+    private String fact;
+    
+    private ProtoStreamMarshaller marshaller;
+    
+    private Object object;
+    
+    private byte[] bytes;
+    
+    private byte[] compactBytes;
+    
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    
+    @Setup
+    public void setup() throws Exception {
+        marshaller = Facts.newMarshaller();
+        object = Facts.fact(fact, 0);
+        bytes = marshaller.marshallToBytes(object);
+        marshaller.marshallCompactTo(object, out);
+        compactBytes = out.toByteArray();
+    }
+    
+    @Benchmark
+    public byte[] marshallToBytes() {
+        return marshaller.marshallToBytes(object);
+    }
+    
+    @Benchmark
+    public Object unmarshallFromBytes() {
+        return marshaller.unmarshallFromBytes(bytes, Object.class);
+    }
+    
+    @Benchmark
+    public int marshallCompactTo() {
+        out.reset();
+        marshaller.marshallCompactTo(object, out);
+        return out.size();
+    }
+    
+    @Benchmark
+    public Object unmarshallCompactFrom() {
+        return marshaller.unmarshallCompactFrom(new ByteArrayInputStream(compactBytes), Object.class);
+    }
+
+}
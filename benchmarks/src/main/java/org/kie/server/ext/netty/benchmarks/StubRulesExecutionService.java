@@ -0,0 +1,40 @@
+package org.kie.server.ext.netty.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.command.runtime.BatchExecutionCommandImpl;
+import org.drools.core.runtime.impl.ExecutionResultImpl;
+import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.server.services.api.KieContainerInstance;
+import org.kie.server.services.api.KieServerRegistry;
+import org.kie.server.services.drools.RulesExecutionService;
+
+/**
+ * Stands in for the rules engine in load tests: every batch takes the configured service time, spent 
+ * spinning, and returns the number of commands it held as the number of rules fired.
+ */
+public class StubRulesExecutionService extends RulesExecutionService {
+    
+    private final long serviceTimeNanos;
+
+    public StubRulesExecutionService(KieServerRegistry registry, long serviceTimeMicros) {
+        super(registry);
+        this.serviceTimeNanos = TimeUnit.MICROSECONDS.toNanos(serviceTimeMicros);
+    }
+
+    @Override
+    public ExecutionResults call(KieContainerInstance kci, BatchExecutionCommand batch) {
+        long end = System.nanoTime() + serviceTimeNanos;
+        while (System.nanoTime() < end) {
+            // busy, like a session firing rules
+        }
+        HashMap<String, Object> results = new HashMap<>();
+        results.put(LoadTest.FIRED, ((BatchExecutionCommandImpl) batch).getCommands().size());
+        ExecutionResultImpl executionResults = new ExecutionResultImpl();
+        executionResults.setResults(results);
+        return executionResults;
+    }
+
+}
@@ -0,0 +1,233 @@
+package org.kie.server.ext.netty.client;
+
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kie.server.ext.netty.codec.ClientChannelInitializer;
+import org.kie.server.ext.netty.codec.ClientConnector;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+import org.kie.server.ext.netty.codec.Handshake;
+import org.kie.server.api.marshalling.Marshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+/**
+ * A connection to a server node, with the requests it is waiting answers for. The connection only takes 
+ * requests once the server has answered its handshake. When it is lost, its pending requests fail with a
+ * <code>ClosedChannelException</code> and it reconnects with an exponential backoff until the client is closed.
+ */
+public class ClientConnection {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ClientConnection.class);
+    
+    private final SocketAddress address;
+    
+    private final ClientConnector connector;
+    
+    private final Marshaller marshaller;
+    
+    private final NettyClientConfig config;
+    
+    private final ConcurrentMap<Long, CompletableFuture<ContainerExecutionResults>> pending = new ConcurrentHashMap<>();
+    
+    private final AtomicInteger outstanding = new AtomicInteger();
+    
+    private volatile Channel channel;
+    
+    private volatile boolean ready;
+    
+    // negotiated with the server, set before the connection is ready
+    private volatile Handshake handshake;
+    
+    private volatile boolean closed;
+    
+    private long reconnectDelay;
+
+    public ClientConnection(SocketAddress address, ClientConnector connector, Marshaller marshaller, NettyClientConfig config) {
+        this.address = address;
+        this.connector = connector;
+        this.marshaller = marshaller;
+        this.config = config;
+        this.reconnectDelay = config.getReconnectDelayMillis();
+    }
+    
+    public void connect() {
+        if (closed) {
+            return;
+        }
+        ClientChannelInitializer initializer = new ClientChannelInitializer(marshaller, config.getMaxFrameLength(), 
+                                                                            new ResponseHandler(), config.getCompressionThreshold());
+        connector.connect(address, initializer).addListener((ChannelFuture f) -> {
+            if (f.isSuccess()) {
+                channel = f.channel();
+                channel.writeAndFlush(new Handshake(Handshake.PROTOCOL_VERSION, capabilities()));
+            } else {
+                logger.debug("Could not connect to {}", address, f.cause());
+                reconnect(f.channel());
+            }
+        });
+    }
+    
+    private int capabilities() {
+        int capabilities = Handshake.CAPABILITY_PIPELINING;
+        if (config.isCompact()) {
+            capabilities |= Handshake.CAPABILITY_COMPACT;
+        }
+        if (config.isCompression()) {
+            capabilities |= Handshake.CAPABILITY_COMPRESSION;
+        }
+        return capabilities;
+    }
+    
+    private void reconnect(Channel previous) {
+        if (closed) {
+            return;
+        }
+        long delay = reconnectDelay;
+        reconnectDelay = Math.min(reconnectDelay * 2, config.getMaxReconnectDelayMillis());
+        previous.eventLoop().schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Sends a correlated command. The future completes with the response, or for a one-way command once 
+     * it has been written. With a deadline, it fails with a <code>TimeoutException</code> if no response 
+     * arrived by then.
+     */
+    public CompletableFuture<ContainerExecutionResults> send(ContainerCommand cc) {
+        CompletableFuture<ContainerExecutionResults> future = new CompletableFuture<>();
+        Channel channel = this.channel;
+        if (!ready || channel == null) {
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+        if (cc.isOneWay()) {
+            channel.writeAndFlush(cc).addListener(f -> {
+                if (f.isSuccess()) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(f.cause());
+                }
+            });
+            return future;
+        }
+        long requestId = cc.getRequestId();
+        outstanding.incrementAndGet();
+        pending.put(requestId, future);
+        channel.writeAndFlush(cc).addListener(f -> {
+            if (!f.isSuccess()) {
+                fail(requestId, f.cause());
+            }
+        });
+        if (cc.hasDeadline()) {
+            channel.eventLoop().schedule(() -> fail(requestId, new TimeoutException("No response to request " + requestId)), 
+                                         cc.getRemainingMillis(), TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+    
+    private CompletableFuture<ContainerExecutionResults> remove(long requestId) {
+        CompletableFuture<ContainerExecutionResults> future = pending.remove(requestId);
+        if (future != null) {
+            outstanding.decrementAndGet();
+        }
+        return future;
+    }
+    
+    private void fail(long requestId, Throwable cause) {
+        CompletableFuture<ContainerExecutionResults> future = remove(requestId);
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+    
+    public void close() {
+        closed = true;
+        Channel channel = this.channel;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+    
+    public SocketAddress getAddress() {
+        return address;
+    }
+    
+    public boolean isReady() {
+        return ready;
+    }
+    
+    /**
+     * @return the flags of the commands sent on the connection, for the capabilities the server accepted
+     */
+    public byte getFlags() {
+        Handshake handshake = this.handshake;
+        return handshake != null && handshake.supports(Handshake.CAPABILITY_COMPACT) ? ContainerCommand.FLAG_COMPACT : 0;
+    }
+    
+    /**
+     * @return the number of requests waiting for a response
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+    
+    private class ResponseHandler extends SimpleChannelInboundHandler<Object> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof ContainerExecutionResults) {
+                ContainerExecutionResults results = (ContainerExecutionResults) msg;
+                CompletableFuture<ContainerExecutionResults> future = remove(results.getRequestId());
+                if (future == null) {
+                    if (!results.isSuccess()) {
+                        logger.warn("Request {} failed on {}: {}", results.getRequestId(), address, results.getMessage());
+                    }
+                } else if (results.isSuccess()) {
+                    future.complete(results);
+                } else {
+                    future.completeExceptionally(new RequestFailedException(results));
+                }
+            } else if (msg instanceof Handshake) {
+                logger.debug("Connected to {} with {}", address, msg);
+                reconnectDelay = config.getReconnectDelayMillis();
+                handshake = (Handshake) msg;
+                ready = true;
+            } else {
+                logger.debug("Ignoring {} from {}", msg.getClass().getSimpleName(), address);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            ready = false;
+            ClosedChannelException cause = new ClosedChannelException();
+            for (Long requestId : pending.keySet()) {
+                fail(requestId, cause);
+            }
+            if (!closed) {
+                logger.info("Lost connection to {}, reconnecting", address);
+                reconnect(ctx.channel());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            logger.warn("Error on connection to {}", address, cause);
+            ctx.close();
+        }
+        
+    }
+
+}
@@ -0,0 +1,169 @@
+package org.kie.server.ext.netty.client;
+
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kie.api.command.Command;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.ext.netty.codec.ClientConnector;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+
+/**
+ * Asynchronous client of one or more servers running the Netty extension. 
+ * <p>
+ * Every node gets a fixed number of connections, all requests are correlated and pipelined on them. A request
+ * goes to the connection with the fewest outstanding requests among the connected ones of the nodes serving 
+ * its container, by default all nodes, see {@link #route(String, SocketAddress...)}. Lost connections are 
+ * reestablished in the background and are skipped until they are.
+ * <p>
+ * Futures fail with a {@link RequestFailedException} when the server answers with an error, rejection or timeout 
+ * status, and with a <code>ClosedChannelException</code> when no connection is available or the connection is lost
+ * before the response arrives.
+ */
+public class NettyClient implements AutoCloseable {
+    
+    private final ClientConnector connector;
+    
+    private final NettyClientConfig config;
+    
+    private final Map<SocketAddress, List<ClientConnection>> nodes = new HashMap<>();
+    
+    private final ConcurrentMap<String, List<ClientConnection>> routes = new ConcurrentHashMap<>();
+    
+    private final List<ClientConnection> all = new ArrayList<>();
+    
+    private final AtomicLong requestIds = new AtomicLong();
+    
+    public NettyClient(Marshaller marshaller, NettyClientConfig config, SocketAddress... addresses) {
+        this(marshaller, config, Arrays.asList(addresses));
+    }
+    
+    public NettyClient(Marshaller marshaller, NettyClientConfig config, Collection<SocketAddress> addresses) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("At least one node is required");
+        }
+        this.config = config;
+        this.connector = new ClientConnector(config.isPreferEpoll(), config.getThreads());
+        for (SocketAddress address : addresses) {
+            List<ClientConnection> connections = new ArrayList<>();
+            for (int i = 0; i < config.getConnectionsPerNode(); i++) {
+                ClientConnection connection = new ClientConnection(address, connector, marshaller, config);
+                connections.add(connection);
+                connection.connect();
+            }
+            nodes.put(address, connections);
+            all.addAll(connections);
+        }
+    }
+    
+    /**
+     * Sends the requests to a container only to the given nodes, which must be among the nodes of the client.
+     */
+    public void route(String containerId, SocketAddress... addresses) {
+        List<ClientConnection> connections = new ArrayList<>();
+        for (SocketAddress address : addresses) {
+            List<ClientConnection> node = nodes.get(address);
+            if (node == null) {
+                throw new IllegalArgumentException("Unknown node " + address);
+            }
+            connections.addAll(node);
+        }
+        routes.put(containerId, connections);
+    }
+    
+    public CompletableFuture<ExecutionResults> execute(String containerId, Command<?> command) {
+        return send(containerId, command, (byte) 0, 0, null).thenApply(ContainerExecutionResults::getExecutionResults);
+    }
+    
+    /**
+     * Executes the command with a deadline, after which the server does not execute it, or halts it if it runs it
+     * on an executor lane.
+     */
+    public CompletableFuture<ExecutionResults> execute(String containerId, Command<?> command, long timeout, TimeUnit unit) {
+        return send(containerId, command, (byte) 0, timeout, unit).thenApply(ContainerExecutionResults::getExecutionResults);
+    }
+    
+    /**
+     * Sends a one-way command. The future completes once the command has been written, failures on the 
+     * server are only logged.
+     */
+    public CompletableFuture<Void> send(String containerId, Command<?> command) {
+        return send(containerId, command, ContainerCommand.FLAG_ONE_WAY, 0, null).thenApply(results -> null);
+    }
+    
+    /**
+     * Sends the command on the selected connection, with the flags of the capabilities negotiated on it.
+     * 
+     * @param unit the unit of the timeout, null for a command without a deadline
+     */
+    private CompletableFuture<ContainerExecutionResults> send(String containerId, Command<?> command, byte flags, long timeout, TimeUnit unit) {
+        ClientConnection connection = select(containerId);
+        if (connection == null) {
+            CompletableFuture<ContainerExecutionResults> future = new CompletableFuture<>();
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+        ContainerCommand cc = new ContainerCommand(requestIds.getAndIncrement(), (byte) (flags | connection.getFlags()), containerId, command);
+        if (unit != null) {
+            cc.setTimeout(timeout, unit);
+        }
+        return connection.send(cc);
+    }
+    
+    private ClientConnection select(String containerId) {
+        List<ClientConnection> connections = routes.getOrDefault(containerId, all);
+        ClientConnection selected = null;
+        int least = Integer.MAX_VALUE;
+        for (ClientConnection connection : connections) {
+            if (connection.isReady() && connection.getOutstanding() < least) {
+                selected = connection;
+                least = connection.getOutstanding();
+            }
+        }
+        return selected;
+    }
+    
+    /**
+     * @return the number of connections ready to take requests by node
+     */
+    public Map<SocketAddress, Integer> getReady() {
+        Map<SocketAddress, Integer> ready = new HashMap<>();
+        for (ClientConnection connection : all) {
+            ready.merge(connection.getAddress(), connection.isReady() ? 1 : 0, Integer::sum);
+        }
+        return ready;
+    }
+    
+    /**
+     * @return the number of outstanding requests by node
+     */
+    public Map<SocketAddress, Integer> getOutstanding() {
+        Map<SocketAddress, Integer> outstanding = new HashMap<>();
+        for (ClientConnection connection : all) {
+            outstanding.merge(connection.getAddress(), connection.getOutstanding(), Integer::sum);
+        }
+        return outstanding;
+    }
+
+    @Override
+    public void close() {
+        for (ClientConnection connection : all) {
+            connection.close();
+        }
+        connector.shutdown();
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.kie.server.ext.netty.client;
+
+import org.kie.server.ext.netty.codec.FrameCompressor;
+
+/**
+ * Settings of a {@link NettyClient}. The defaults match the defaults of the server.
+ */
+public class NettyClientConfig {
+    
+    private int connectionsPerNode = 2;
+    
+    private int threads = 0;
+    
+    private boolean preferEpoll = false;
+    
+    private int maxFrameLength = 1048576;
+    
+    private boolean compact = false;
+    
+    private boolean compression = false;
+    
+    private int compressionThreshold = FrameCompressor.DEFAULT_THRESHOLD;
+    
+    private long reconnectDelayMillis = 100;
+    
+    private long maxReconnectDelayMillis = 10000;
+
+    public int getConnectionsPerNode() {
+        return connectionsPerNode;
+    }
+
+    public void setConnectionsPerNode(int connectionsPerNode) {
+        this.connectionsPerNode = connectionsPerNode;
+    }
+
+    /**
+     * @return the number of event loop threads shared by all connections, 0 for Netty's default
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isPreferEpoll() {
+        return preferEpoll;
+    }
+
+    public void setPreferEpoll(boolean preferEpoll) {
+        this.preferEpoll = preferEpoll;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * @return true if objects are sent with type ids, which requires a marshaller created from the 
+     * container's schema, see <code>ContainerSchema.createMarshaller</code>
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public long getReconnectDelayMillis() {
+        return reconnectDelayMillis;
+    }
+
+    /**
+     * Sets the delay before the first attempt to reconnect a lost connection. The delay doubles with 
+     * every failed attempt, up to the max reconnect delay.
+     */
+    public void setReconnectDelayMillis(long reconnectDelayMillis) {
+        this.reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    public long getMaxReconnectDelayMillis() {
+        return maxReconnectDelayMillis;
+    }
+
+    public void setMaxReconnectDelayMillis(long maxReconnectDelayMillis) {
+        this.maxReconnectDelayMillis = maxReconnectDelayMillis;
+    }
+
+}
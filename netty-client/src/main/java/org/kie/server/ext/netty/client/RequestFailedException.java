@@ -0,0 +1,34 @@
+package org.kie.server.ext.netty.client;
+
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+
+/**
+ * A request answered with a status other than <code>STATUS_OK</code>.
+ */
+public class RequestFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+    
+    private final byte status;
+    
+    public RequestFailedException(ContainerExecutionResults results) {
+        super(results.getMessage());
+        this.status = results.getStatus();
+    }
+    
+    /**
+     * @return one of the <code>ContainerExecutionResults.STATUS_*</code> constants
+     */
+    public byte getStatus() {
+        return status;
+    }
+    
+    public boolean isRejected() {
+        return status == ContainerExecutionResults.STATUS_REJECTED;
+    }
+    
+    public boolean isTimeout() {
+        return status == ContainerExecutionResults.STATUS_TIMEOUT;
+    }
+
+}
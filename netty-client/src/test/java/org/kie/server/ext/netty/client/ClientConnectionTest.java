@@ -0,0 +1,97 @@
+package org.kie.server.ext.netty.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.server.ext.netty.codec.ClientConnector;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+
+public class ClientConnectionTest {
+
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private StubServer server;
+
+    private ClientConnector connector;
+
+    private ClientConnection connection;
+
+    @Before
+    public void connect() throws Exception {
+        server = new StubServer("c");
+        connector = new ClientConnector(false, 1);
+        NettyClientConfig config = new NettyClientConfig();
+        config.setReconnectDelayMillis(10);
+        connection = new ClientConnection(server.getAddress(), connector, StubServer.MARSHALLER, config);
+        connection.connect();
+        await(connection::isReady, "Connection not ready");
+    }
+
+    @After
+    public void close() throws Exception {
+        connection.close();
+        connector.shutdown();
+        server.close();
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private CompletableFuture<ContainerExecutionResults> fire(String name) {
+        FireAllRulesCommand command = new FireAllRulesCommand();
+        command.setOutIdentifier(name);
+        return connection.send(new ContainerCommand(requestIds.getAndIncrement(), (byte) 0, "c", command));
+    }
+
+    private static void assertClosed(CompletableFuture<ContainerExecutionResults> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("The request should fail with the connection");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void lostConnectionFailsPendingRequestsAndReconnects() throws Exception {
+        CompletableFuture<ContainerExecutionResults> first = fire("first");
+        CompletableFuture<ContainerExecutionResults> second = fire("second");
+        server.take();
+        server.take();
+        assertEquals(2, connection.getOutstanding());
+
+        server.dropConnections();
+        assertClosed(first);
+        assertClosed(second);
+        assertEquals(0, connection.getOutstanding());
+
+        await(connection::isReady, "Connection not reestablished");
+        assertEquals(1, server.getConnections());
+        CompletableFuture<ContainerExecutionResults> third = fire("third");
+        StubServer.Request request = server.take();
+        assertEquals("third", request.getName());
+        request.answer("done");
+        assertEquals("done", third.get(5, TimeUnit.SECONDS).getExecutionResults().getValue("value"));
+    }
+
+}
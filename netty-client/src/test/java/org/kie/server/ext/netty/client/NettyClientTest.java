@@ -0,0 +1,212 @@
+package org.kie.server.ext.netty.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.junit.After;
+import org.junit.Test;
+import org.kie.api.runtime.ExecutionResults;
+
+import io.netty.channel.Channel;
+
+public class NettyClientTest {
+
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+
+    @After
+    public void close() throws Exception {
+        for (int i = closeables.size() - 1; i >= 0; i--) {
+            closeables.get(i).close();
+        }
+    }
+
+    private StubServer server(String... containerIds) throws Exception {
+        StubServer server = new StubServer(containerIds);
+        closeables.add(server);
+        return server;
+    }
+
+    private NettyClient client(int connectionsPerNode, StubServer... servers) throws Exception {
+        return client(new NettyClientConfig(), connectionsPerNode, servers);
+    }
+
+    private NettyClient client(NettyClientConfig config, int connectionsPerNode, StubServer... servers) throws Exception {
+        config.setConnectionsPerNode(connectionsPerNode);
+        config.setThreads(1);
+        List<SocketAddress> addresses = new ArrayList<>();
+        for (StubServer server : servers) {
+            addresses.add(server.getAddress());
+        }
+        NettyClient client = new NettyClient(StubServer.MARSHALLER, config, addresses);
+        closeables.add(client);
+        awaitReady(client, connectionsPerNode * servers.length);
+        return client;
+    }
+
+    private static void awaitReady(NettyClient client, int connections) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.getReady().values().stream().mapToInt(Integer::intValue).sum() < connections) {
+            if (System.nanoTime() > deadline) {
+                fail("Connections not ready: " + client.getReady());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static CompletableFuture<ExecutionResults> fire(NettyClient client, String containerId, String name) {
+        FireAllRulesCommand command = new FireAllRulesCommand();
+        command.setOutIdentifier(name);
+        return client.execute(containerId, command);
+    }
+
+    private static Object value(CompletableFuture<ExecutionResults> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS).getValue("value");
+    }
+
+    @Test(timeout = 30000)
+    public void responsesCompleteTheirRequestWhateverTheOrder() throws Exception {
+        StubServer server = server("c");
+        NettyClient client = client(1, server);
+        List<CompletableFuture<ExecutionResults>> futures = new ArrayList<>();
+        List<StubServer.Request> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(fire(client, "c", "r" + i));
+            requests.add(server.take());
+        }
+        assertEquals(3, (int) client.getOutstanding().get(server.getAddress()));
+
+        // answered in reverse order, one of them with an error
+        requests.get(2).answer("answer to " + requests.get(2).getName());
+        requests.get(1).fail("boom");
+        requests.get(0).answer("answer to " + requests.get(0).getName());
+
+        assertEquals("answer to r0", value(futures.get(0)));
+        assertEquals("answer to r2", value(futures.get(2)));
+        try {
+            futures.get(1).get(5, TimeUnit.SECONDS);
+            fail("The request answered with an error should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestFailedException);
+            assertEquals("boom", e.getCause().getMessage());
+        }
+        assertEquals(0, (int) client.getOutstanding().get(server.getAddress()));
+    }
+
+    @Test(timeout = 30000)
+    public void requestsGoToTheConnectionWithTheFewestOutstanding() throws Exception {
+        StubServer server = server("c");
+        NettyClient client = client(3, server);
+        List<StubServer.Request> requests = new ArrayList<>();
+        Set<Channel> connections = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            fire(client, "c", "r" + i);
+            StubServer.Request request = server.take();
+            requests.add(request);
+            connections.add(request.getConnection());
+        }
+        assertEquals("Each connection should have one outstanding request", 3, connections.size());
+
+        // the connection of the answered request is the only one without outstanding requests
+        StubServer.Request answered = requests.get(1);
+        fire(client, "c", "before");
+        assertNotSame(answered.getConnection(), server.take().getConnection());
+        answered.answer("done");
+        awaitOutstanding(client, server, 3);
+        fire(client, "c", "after");
+        assertSame(answered.getConnection(), server.take().getConnection());
+    }
+
+    private static void awaitOutstanding(NettyClient client, StubServer server, int outstanding) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.getOutstanding().get(server.getAddress()) != outstanding) {
+            if (System.nanoTime() > deadline) {
+                fail("Outstanding requests: " + client.getOutstanding());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void routedContainersOnlyGoToTheirNodes() throws Exception {
+        StubServer first = server("a", "b");
+        StubServer second = server("a", "b");
+        NettyClient client = client(1, first, second);
+        client.route("a", first.getAddress());
+
+        // requests to a are kept outstanding on the first node, and still go there
+        for (int i = 0; i < 4; i++) {
+            fire(client, "a", "a" + i);
+            assertEquals("a", first.take().getContainerId());
+        }
+        assertNull(second.poll());
+
+        // requests to b are not routed, and go to the node with the fewest outstanding
+        for (int i = 0; i < 2; i++) {
+            fire(client, "b", "b" + i);
+            assertEquals("b", second.take().getContainerId());
+        }
+        assertNull(first.poll());
+
+        client.route("b", first.getAddress());
+        fire(client, "b", "routed");
+        StubServer.Request routed = first.take();
+        assertEquals("routed", routed.getName());
+        assertNull(second.poll());
+    }
+
+    @Test(timeout = 30000)
+    public void requestsFailWithoutAConnection() throws Exception {
+        StubServer server = server("c");
+        NettyClient client = client(1, server);
+        server.close();
+        closeables.remove(server);
+        awaitNotReady(client);
+        try {
+            fire(client, "c", "lost").get(5, TimeUnit.SECONDS);
+            fail("No connection should be available");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void compactFormIsOnlyUsedWhenTheServerAcceptsIt() throws Exception {
+        // the stub server only accepts pipelining
+        StubServer server = server("c");
+        NettyClientConfig config = new NettyClientConfig();
+        config.setCompact(true);
+        NettyClient client = client(config, 1, server);
+        CompletableFuture<ExecutionResults> future = fire(client, "c", "plain");
+        StubServer.Request request = server.take();
+        assertFalse(request.isCompact());
+        request.answer("done");
+        assertEquals("done", value(future));
+    }
+
+    private static void awaitNotReady(NettyClient client) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.getReady().values().stream().mapToInt(Integer::intValue).sum() > 0) {
+            if (System.nanoTime() > deadline) {
+                fail("Connections still ready: " + client.getReady());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package org.kie.server.ext.netty.client;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.drools.core.runtime.impl.ExecutionResultImpl;
+import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.api.marshalling.MarshallingFormat;
+import org.kie.server.ext.netty.AllocationMetrics;
+import org.kie.server.ext.netty.CommandDecoder;
+import org.kie.server.ext.netty.ExecutionResultsEncoder;
+import org.kie.server.ext.netty.FrameDecoder;
+import org.kie.server.ext.netty.HandshakeHandler;
+import org.kie.server.ext.netty.MarshallerRegistry;
+import org.kie.server.ext.netty.PipelineMetrics;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+import org.kie.server.ext.netty.codec.ControlFrameEncoder;
+import org.kie.server.ext.netty.codec.Handshake;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+/**
+ * A server node standing in for the extension: requests are decoded and answered with the pipeline of
+ * the extension, but they are kept until the test answers them, so that it controls what is outstanding.
+ */
+class StubServer implements AutoCloseable {
+
+    static final Marshaller MARSHALLER = new StringMarshaller();
+
+    private static final int MAX_FRAME_LENGTH = 1048576;
+
+    private final EventLoopGroup group = new NioEventLoopGroup(1);
+
+    private final MarshallerRegistry marshallerRegistry = new MarshallerRegistry((id, kci) -> new MarshallerRegistry.Version(null, MARSHALLER, null));
+
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+
+    private final List<Channel> connections = new CopyOnWriteArrayList<>();
+
+    private final Channel channel;
+
+    StubServer(String... containerIds) throws Exception {
+        for (String containerId : containerIds) {
+            marshallerRegistry.create(containerId, null);
+        }
+        channel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(new FrameDecoder(MAX_FRAME_LENGTH, new PipelineMetrics()));
+                        pipeline.addLast(new LengthFieldPrepender(4));
+                        pipeline.addLast(new ControlFrameEncoder());
+                        pipeline.addLast(new ExecutionResultsEncoder(marshallerRegistry, new AllocationMetrics()));
+                        pipeline.addLast(new CommandDecoder(marshallerRegistry, new AllocationMetrics(), new PipelineMetrics(), 16, MAX_FRAME_LENGTH));
+                        pipeline.addLast(new HandshakeHandler(marshallerRegistry, Handshake.CAPABILITY_PIPELINING));
+                        pipeline.addLast(new RequestCollector());
+                        connections.add(ch);
+                        ch.closeFuture().addListener(f -> connections.remove(ch));
+                    }
+                })
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).sync().channel();
+    }
+
+    SocketAddress getAddress() {
+        return channel.localAddress();
+    }
+
+    /**
+     * @return the next request received, failing the test if none arrives in time
+     */
+    Request take() throws InterruptedException {
+        Request request = requests.poll(5, TimeUnit.SECONDS);
+        if (request == null) {
+            throw new AssertionError("No request received");
+        }
+        return request;
+    }
+
+    /**
+     * @return the next request received, or null if none arrives shortly
+     */
+    Request poll() throws InterruptedException {
+        return requests.poll(200, TimeUnit.MILLISECONDS);
+    }
+
+    int getConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Closes the connections of the clients, as a server restarting would.
+     */
+    void dropConnections() throws InterruptedException {
+        for (Channel connection : connections) {
+            connection.close().sync();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        channel.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    static class Request {
+
+        private final Channel connection;
+
+        private final ContainerCommand command;
+
+        Request(Channel connection, ContainerCommand command) {
+            this.connection = connection;
+            this.command = command;
+        }
+
+        Channel getConnection() {
+            return connection;
+        }
+
+        String getContainerId() {
+            return command.getContainerId();
+        }
+
+        boolean isCompact() {
+            return command.isCompact();
+        }
+
+        /**
+         * @return the out identifier of the <code>fireAllRules</code> command sent, which tests use to tell requests apart
+         */
+        String getName() {
+            return ((FireAllRulesCommand) command.getCommand()).getOutIdentifier();
+        }
+
+        void answer(String value) {
+            ExecutionResultImpl results = new ExecutionResultImpl();
+            results.getResults().put("value", value);
+            connection.writeAndFlush(new ContainerExecutionResults(command, results));
+        }
+
+        void fail(String message) {
+            connection.writeAndFlush(new ContainerExecutionResults(command, ContainerExecutionResults.STATUS_ERROR, message));
+        }
+
+    }
+
+    private class RequestCollector extends SimpleChannelInboundHandler<ContainerCommand> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ContainerCommand msg) throws Exception {
+            requests.add(new Request(ctx.channel(), msg));
+        }
+
+    }
+
+    /**
+     * Sends objects as their string form, and reads them back as strings.
+     */
+    private static class StringMarshaller implements Marshaller {
+
+        @Override
+        public String marshall(Object input) {
+            return String.valueOf(input);
+        }
+
+        @Override
+        public <T> T unmarshall(String input, Class<T> type) {
+            return type.cast(input);
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+        @Override
+        public MarshallingFormat getFormat() {
+            return MarshallingFormat.JSON;
+        }
+
+        @Override
+        public void setClassLoader(ClassLoader classLoader) {
+        }
+
+        @Override
+        public ClassLoader getClassLoader() {
+            return StringMarshaller.class.getClassLoader();
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.kie.server.ext.netty.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.drools.core.command.impl.GenericCommand;
+import org.drools.core.command.runtime.BatchExecutionCommandImpl;
+
+/**
+ * Part of a batch sent as a sequence of frames. The server decodes the commands of every chunk as it
+ * arrives and executes the batch once the last chunk has been received. All chunks of a batch share
+ * the request id of the batch, which is mandatory.
+ */
+public class BatchChunk extends ContainerCommand {
+    
+    private boolean last;
+
+    public BatchChunk(long requestId, String containerId, String lookup, List<GenericCommand<?>> commands, boolean last) {
+        this(requestId, (byte) 0, containerId, lookup, commands, last);
+    }
+    
+    public BatchChunk(long requestId, byte flags, String containerId, String lookup, List<GenericCommand<?>> commands, boolean last) {
+        super(requestId, flags, containerId, new BatchExecutionCommandImpl(commands, lookup));
+        if (requestId == NO_REQUEST_ID) {
+            throw new IllegalArgumentException("Batch chunks require a request id");
+        }
+        this.last = last;
+    }
+    
+    public boolean isLast() {
+        return last;
+    }
+    
+    @Override
+    public BatchExecutionCommandImpl getCommand() {
+        return (BatchExecutionCommandImpl) super.getCommand();
+    }
+    
+    /**
+     * Splits a batch in chunks of at most <code>chunkSize</code> commands.
+     */
+    public static List<BatchChunk> split(long requestId, byte flags, String containerId, BatchExecutionCommandImpl batch, int chunkSize) {
+        List<GenericCommand<?>> commands = batch.getCommands();
+        List<BatchChunk> chunks = new ArrayList<>(commands.size() / chunkSize + 1);
+        int from = 0;
+        do {
+            int to = Math.min(from + chunkSize, commands.size());
+            chunks.add(new BatchChunk(requestId, flags, containerId, batch.getLookup(), commands.subList(from, to), to == commands.size()));
+            from = to;
+        } while (from < commands.size());
+        return chunks;
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.kie.server.ext.netty.codec;
+
+import org.kie.server.api.marshalling.Marshaller;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+/**
+ * Client side counterpart of the server pipeline: frames are length prefixed, commands are encoded 
+ * with {@link CommandEncoder} and responses decoded with {@link ExecutionResultsDecoder} before they
+ * reach the application handler. {@link Handshake} and {@link SchemaRequest} can be written on the same channel.
+ * <p>
+ * Frames are compressed if the server agrees to {@link Handshake#CAPABILITY_COMPRESSION} in the handshake. The client 
+ * must wait for the answer to its handshake before writing anything else.
+ */
+public class ClientChannelInitializer extends ChannelInitializer<Channel> {
+    
+    private Marshaller marshaller;
+    
+    private int maxFrameLength;
+    
+    private ChannelHandler handler;
+    
+    private int compressionThreshold;
+    
+    public ClientChannelInitializer(Marshaller marshaller, int maxFrameLength, ChannelHandler handler) {
+        this(marshaller, maxFrameLength, handler, FrameCompressor.DEFAULT_THRESHOLD);
+    }
+    
+    public ClientChannelInitializer(Marshaller marshaller, int maxFrameLength, ChannelHandler handler, int compressionThreshold) {
+        this.marshaller = marshaller;
+        this.maxFrameLength = maxFrameLength;
+        this.handler = handler;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    protected void initChannel(Channel ch) throws Exception {
+        ChannelPipeline pipeline = ch.pipeline();
+        pipeline.addLast(new LengthFieldBasedFrameDecoder(maxFrameLength, 0, 4, 0, 4));
+        pipeline.addLast(new LengthFieldPrepender(4));
+        pipeline.addLast(new FrameDecompressor());
+        pipeline.addLast(new FrameCompressor(compressionThreshold));
+        pipeline.addLast(new ControlFrameEncoder());
+        pipeline.addLast(new CommandEncoder(marshaller));
+        pipeline.addLast(new ExecutionResultsDecoder(marshaller));
+        pipeline.addLast(handler);
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.kie.server.ext.netty.codec;
+
+import java.net.SocketAddress;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+
+/**
+ * Opens client connections to the Netty extension, over TCP or, for a {@link DomainSocketAddress},
+ * over the Unix domain socket listener of a server on the same host. With <code>preferEpoll</code> the
+ * native epoll transport is used when available, which domain sockets require.
+ */
+public class ClientConnector {
+    
+    private final boolean epoll;
+    
+    private final int threads;
+    
+    private EventLoopGroup group;
+    
+    public ClientConnector(boolean preferEpoll, int threads) {
+        this.epoll = preferEpoll && Epoll.isAvailable();
+        this.threads = threads;
+    }
+    
+    public ChannelFuture connect(SocketAddress address, ChannelInitializer<?> initializer) {
+        boolean domainSocket = address instanceof DomainSocketAddress;
+        if (domainSocket && !epoll) {
+            throw new IllegalStateException("Domain sockets require the native epoll transport", Epoll.unavailabilityCause());
+        }
+        Bootstrap b = new Bootstrap();
+        b.group(group())
+        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        .handler(initializer);
+        if (domainSocket) {
+            b.channel(EpollDomainSocketChannel.class);
+        } else {
+            b.channel(epoll ? EpollSocketChannel.class : NioSocketChannel.class)
+            .option(ChannelOption.TCP_NODELAY, true);
+        }
+        return b.connect(address);
+    }
+    
+    public void shutdown() {
+        if (group != null) {
+            group.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+    
+    private synchronized EventLoopGroup group() {
+        if (group == null) {
+            group = epoll ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+        }
+        return group;
+    }
+
+}
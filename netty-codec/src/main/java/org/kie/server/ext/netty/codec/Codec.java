@@ -1,7 +1,9 @@
 package org.kie.server.ext.netty.codec;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +12,7 @@ import org.drools.core.command.impl.GenericCommand;
 import org.drools.core.command.runtime.BatchExecutionCommandImpl;
 import org.drools.core.command.runtime.process.StartProcessCommand;
 import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.drools.core.command.runtime.rule.InsertElementsCommand;
 import org.drools.core.command.runtime.rule.InsertObjectCommand;
 import org.drools.core.runtime.impl.ExecutionResultImpl;
 import org.kie.api.command.Command;
@@ -18,15 +21,72 @@ import org.kie.server.api.marshalling.Marshaller;
 import org.kie.server.ext.netty.marshaller.ProtoStreamMarshaller;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 
+/**
+ * Wire format of the Netty transport.
+ * <p>
+ * A request frame is <code>[containerId][command]</code>, answered by a frame containing the encoded
+ * <code>ExecutionResults</code>. Responses to these frames are sent in the order the requests were received.
+ * <p>
+ * A correlated (version 2) request frame is prefixed with <code>[PROTOCOL_V2][requestId][flags]</code>. Its response is
+ * <code>[PROTOCOL_V2][requestId][flags][status][containerId]</code> followed by the results, or by an error message when
+ * the status is not ok. Responses to correlated requests can be sent in any order.
+ * <p>
+ * With the compact flag, objects in the request and its response are written as the varint id of their type in the
+ * container's <code>TypeIdTable</code> followed by the raw protobuf message, instead of a message wrapped with its type name.
+ * <p>
+ * A batch can be sent as a sequence of correlated frames, each holding a {@link BatchChunk}. 
+ * <p>
+ * A correlated request with the one-way flag gets no response, unless it fails, in which case an error response 
+ * with its request id is sent whenever the failure happens. A one-way insert is written as 
+ * <code>[OPCODE_INSERT_EVENT][entryPoint][object]</code>, without the out identifier and flags of a regular insert.
+ * <p>
+ * A correlated request with the deadline flag has the varint number of milliseconds left before its deadline right
+ * after its flags. It is answered with <code>STATUS_TIMEOUT</code> if the deadline passes before it completes.
+ * <p>
+ * An <code>InsertElementsCommand</code> is written as <code>[OPCODE_INSERT_ELEMENTS][outIdentifier][returnObject][entryPoint]
+ * [count][typeName]</code> followed by the objects. When all objects are of the same protobuf type, <code>typeName</code> is 
+ * that type and each object is a length prefixed raw message, otherwise it is null and each object is marshalled on its own.
+ * <p>
+ * Control frames start with their own marker byte: <code>[FRAME_HANDSHAKE][version][capabilities]</code> in both
+ * directions, <code>[FRAME_SCHEMA][requestId][containerId][knownHash]</code> to ask for the schemas of a container, answered
+ * by <code>[FRAME_SCHEMA][requestId][status][containerId][hash][protoFiles][typeIds]</code>. A subscription is 
+ * <code>[FRAME_SUBSCRIBE][requestId][flags][containerId][lookup][kind][name][subscribe]</code>, and the outputs it 
+ * receives <code>[FRAME_PUSH][requestId][flags][containerId][object]</code>.
+ * <p>
+ * Once compression is negotiated, every frame following the handshake is prefixed with a compression flag,
+ * see {@link FrameCompressor}.
+ * <p>
+ * The first byte of an uncorrelated frame is the high byte of the container id length, which is never
+ * <code>PROTOCOL_V2</code> or a control frame marker for any container id shorter than 32MB, so all kinds of frames can 
+ * be mixed on a connection.
+ */
 public class Codec {
     
+    public static final byte PROTOCOL_V2 = 0x02;
+    
+    public static final byte FRAME_HANDSHAKE = 0x10;
+    public static final byte FRAME_SCHEMA = 0x11;
+    public static final byte FRAME_SUBSCRIBE = 0x12;
+    public static final byte FRAME_PUSH = 0x13;
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
     private static final byte OPCODE_BATCH =  0x01;
     private static final byte OPCODE_INSERT =  0x02;
     private static final byte OPCODE_FIRE =  0x03;
     private static final byte OPCODE_START_PROCESS =  0x04;
+    private static final byte OPCODE_BATCH_VARINT =  0x05;
+    private static final byte OPCODE_BATCH_CHUNK =  0x06;
+    private static final byte OPCODE_INSERT_EVENT =  0x07;
+    private static final byte OPCODE_INSERT_ELEMENTS =  0x08;
     
     private Marshaller marshaller;
+    
+    private boolean compact;
 
     public void encodeString(String string, ByteBuf byteBuf) {
         if (string == null) {
@@ -37,9 +97,11 @@ public class Codec {
             byteBuf.writeInt(0);
             return;
         }
-        byte[] bytes = string.getBytes(Charset.forName("UTF-8"));
-        byteBuf.writeInt(bytes.length);
-        byteBuf.writeBytes(bytes);
+        // reserve the length prefix and back-patch it once the string is written
+        int lengthIndex = byteBuf.writerIndex();
+        byteBuf.writeInt(0);
+        int length = ByteBufUtil.writeUtf8(byteBuf, string);
+        byteBuf.setInt(lengthIndex, length);
     }
     
     public String decodeString(ByteBuf byteBuf) {
@@ -49,7 +111,9 @@ public class Codec {
         } else if (length == 0) {
             return "";
         } else {
-            return new String(byteBuf.readBytes(length).array(),Charset.forName("UTF-8"));
+            String string = byteBuf.toString(byteBuf.readerIndex(), length, UTF_8);
+            byteBuf.skipBytes(length);
+            return string;
         }
     }
     
@@ -60,18 +124,280 @@ public class Codec {
     
     public byte[] decodeByteArray(ByteBuf byteBuf) {
         int length = byteBuf.readInt();
-        return byteBuf.readBytes(length).array();
+        byte[] bytes = new byte[length];
+        byteBuf.readBytes(bytes);
+        return bytes;
+    }
+
+    public void encodeVarint(int value, ByteBuf byteBuf) {
+        while ((value & ~0x7F) != 0) {
+            byteBuf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        byteBuf.writeByte(value);
+    }
+    
+    public int decodeVarint(ByteBuf byteBuf) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = byteBuf.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+    
+    /**
+     * Decodes the number of elements that follow, each of which takes at least one byte, so that a count sent 
+     * by a peer is checked against the frame before anything is sized from it.
+     */
+    public int decodeCount(ByteBuf byteBuf) {
+        return checkCount(decodeVarint(byteBuf), byteBuf);
+    }
+    
+    private static int checkCount(int count, ByteBuf byteBuf) {
+        if (count < 0 || count > byteBuf.readableBytes()) {
+            throw new IllegalStateException("Invalid count " + count + " with " + byteBuf.readableBytes() + " bytes left");
+        }
+        return count;
+    }
+    
+    /**
+     * @return an initial capacity for the elements that follow, not larger than what the rest of the frame can hold
+     */
+    private static int capacity(int count, ByteBuf byteBuf) {
+        return Math.min(count, byteBuf.readableBytes());
+    }
+    
+    public boolean isCorrelated(ByteBuf byteBuf) {
+        return byteBuf.getByte(byteBuf.readerIndex()) == PROTOCOL_V2;
+    }
+    
+    /**
+     * @return the control frame marker of the frame, or 0 for requests and responses
+     */
+    public byte controlFrame(ByteBuf byteBuf) {
+        byte b = byteBuf.getByte(byteBuf.readerIndex());
+        return b >= FRAME_HANDSHAKE && b <= FRAME_PUSH ? b : 0;
+    }
+    
+    public void encodeHandshake(Handshake handshake, ByteBuf byteBuf) {
+        byteBuf.writeByte(FRAME_HANDSHAKE);
+        byteBuf.writeByte(handshake.getVersion());
+        byteBuf.writeInt(handshake.getCapabilities());
+    }
+    
+    public Handshake decodeHandshake(ByteBuf byteBuf) {
+        byteBuf.skipBytes(1);
+        return new Handshake(byteBuf.readByte(), byteBuf.readInt());
+    }
+    
+    public void encodeSchemaRequest(SchemaRequest request, ByteBuf byteBuf) {
+        byteBuf.writeByte(FRAME_SCHEMA);
+        byteBuf.writeLong(request.getRequestId());
+        encodeString(request.getContainerId(), byteBuf);
+        encodeString(request.getKnownHash(), byteBuf);
+    }
+    
+    public SchemaRequest decodeSchemaRequest(ByteBuf byteBuf) {
+        byteBuf.skipBytes(1);
+        long requestId = byteBuf.readLong();
+        String containerId = decodeString(byteBuf);
+        return new SchemaRequest(requestId, containerId, decodeString(byteBuf));
+    }
+    
+    public void encodeContainerSchema(ContainerSchema schema, ByteBuf byteBuf) {
+        byteBuf.writeByte(FRAME_SCHEMA);
+        byteBuf.writeLong(schema.getRequestId());
+        byteBuf.writeByte(schema.getStatus());
+        encodeString(schema.getContainerId(), byteBuf);
+        encodeString(schema.getHash(), byteBuf);
+        encodeVarint(schema.getProtoFiles().size(), byteBuf);
+        for (Map.Entry<String, String> protoFile : schema.getProtoFiles().entrySet()) {
+            encodeString(protoFile.getKey(), byteBuf);
+            encodeString(protoFile.getValue(), byteBuf);
+        }
+        encodeVarint(schema.getTypeIds().size(), byteBuf);
+        for (Map.Entry<Integer, String> typeId : schema.getTypeIds().entrySet()) {
+            encodeVarint(typeId.getKey(), byteBuf);
+            encodeString(typeId.getValue(), byteBuf);
+        }
+    }
+    
+    public ContainerSchema decodeContainerSchema(ByteBuf byteBuf) {
+        byteBuf.skipBytes(1);
+        long requestId = byteBuf.readLong();
+        byte status = byteBuf.readByte();
+        String containerId = decodeString(byteBuf);
+        String hash = decodeString(byteBuf);
+        int numProtoFiles = decodeCount(byteBuf);
+        Map<String, String> protoFiles = new HashMap<>(capacity(numProtoFiles, byteBuf));
+        for (int i = 0; i < numProtoFiles; i++) {
+            String name = decodeString(byteBuf);
+            protoFiles.put(name, decodeString(byteBuf));
+        }
+        int numTypeIds = decodeCount(byteBuf);
+        Map<Integer, String> typeIds = new HashMap<>(capacity(numTypeIds, byteBuf));
+        for (int i = 0; i < numTypeIds; i++) {
+            int typeId = decodeVarint(byteBuf);
+            typeIds.put(typeId, decodeString(byteBuf));
+        }
+        return new ContainerSchema(requestId, status, containerId, hash, protoFiles, typeIds);
+    }
+    
+    public void encodeSubscribeRequest(SubscribeRequest request, ByteBuf byteBuf) {
+        byteBuf.writeByte(FRAME_SUBSCRIBE);
+        byteBuf.writeLong(request.getRequestId());
+        byteBuf.writeByte(request.getFlags());
+        encodeString(request.getContainerId(), byteBuf);
+        encodeString(request.getLookup(), byteBuf);
+        byteBuf.writeByte(request.getKind());
+        encodeString(request.getName(), byteBuf);
+        byteBuf.writeBoolean(request.isSubscribe());
+    }
+    
+    public SubscribeRequest decodeSubscribeRequest(ByteBuf byteBuf) {
+        byteBuf.skipBytes(1);
+        long requestId = byteBuf.readLong();
+        byte flags = byteBuf.readByte();
+        String containerId = decodeString(byteBuf);
+        String lookup = decodeString(byteBuf);
+        byte kind = byteBuf.readByte();
+        String name = decodeString(byteBuf);
+        return new SubscribeRequest(requestId, flags, containerId, lookup, kind, name, byteBuf.readBoolean());
+    }
+    
+    /**
+     * Encodes a pushed object with the marshaller set on this codec.
+     */
+    public void encodePushMessage(PushMessage push, ByteBuf byteBuf) {
+        byteBuf.writeByte(FRAME_PUSH);
+        byteBuf.writeLong(push.getRequestId());
+        byteBuf.writeByte(push.getFlags());
+        encodeString(push.getContainerId(), byteBuf);
+        setCompact(push.isCompact());
+        marshall(push.getObject(), byteBuf);
+    }
+    
+    public PushMessage decodePushMessage(ByteBuf byteBuf) {
+        byteBuf.skipBytes(1);
+        long requestId = byteBuf.readLong();
+        byte flags = byteBuf.readByte();
+        String containerId = decodeString(byteBuf);
+        setCompact((flags & ContainerCommand.FLAG_COMPACT) != 0);
+        return new PushMessage(requestId, flags, containerId, unmarshall(byteBuf));
+    }
+    
+    public void encodeContainerCommand(ContainerCommand cc, ByteBuf byteBuf) {
+        if (cc.isCorrelated()) {
+            byteBuf.writeByte(PROTOCOL_V2);
+            byteBuf.writeLong(cc.getRequestId());
+            byteBuf.writeByte(cc.getFlags());
+            if (cc.hasDeadline()) {
+                encodeVarint((int) Math.min(Integer.MAX_VALUE, cc.getRemainingMillis()), byteBuf);
+            }
+        }
+        setCompact(cc.isCompact());
+        encodeString(cc.getContainerId(), byteBuf);
+        if (cc instanceof BatchChunk) {
+            BatchChunk chunk = (BatchChunk) cc;
+            byteBuf.writeByte(OPCODE_BATCH_CHUNK);
+            byteBuf.writeBoolean(chunk.isLast());
+            encodeBatch(chunk.getCommand(), byteBuf);
+        } else if (cc.isOneWay() && cc.getCommand() instanceof InsertObjectCommand) {
+            // nothing is returned, so only the entry point and the object are needed
+            InsertObjectCommand insert = (InsertObjectCommand) cc.getCommand();
+            byteBuf.writeByte(OPCODE_INSERT_EVENT);
+            encodeString(insert.getEntryPoint(), byteBuf);
+            marshall(insert.getObject(), byteBuf);
+        } else {
+            encodeCommand(cc.getCommand(), byteBuf);
+        }
+    }
+    
+    /**
+     * @return true if the frame, positioned after its container id, holds a batch chunk
+     */
+    public boolean isBatchChunk(ByteBuf byteBuf) {
+        return byteBuf.getByte(byteBuf.readerIndex()) == OPCODE_BATCH_CHUNK;
+    }
+    
+    /**
+     * Decodes the commands of a batch chunk and appends them to the batch being assembled.
+     * 
+     * @return true if this was the last chunk of the batch
+     */
+    public boolean decodeBatchChunk(ByteBuf byteBuf, BatchExecutionCommandImpl batch) {
+        byteBuf.skipBytes(1);
+        boolean last = byteBuf.readBoolean();
+        batch.setLookup(decodeString(byteBuf));
+        int numCommands = decodeCount(byteBuf);
+        for (int i = 0; i < numCommands; i++) {
+            batch.getCommands().add(decodeCommand(byteBuf));
+        }
+        return last;
+    }
+    
+    /**
+     * Decodes the request id of a request frame. The flags of a correlated request must be read next with
+     * {@link #decodeFlags(ByteBuf)}, followed by its timeout with {@link #decodeTimeout(ByteBuf)} if it has 
+     * the deadline flag. The marshaller for the container must be set before the command itself 
+     * is decoded with {@link #decodeCommand(ByteBuf)}.
+     */
+    public long decodeRequestId(ByteBuf byteBuf) {
+        if (isCorrelated(byteBuf)) {
+            byteBuf.skipBytes(1);
+            return byteBuf.readLong();
+        }
+        return ContainerCommand.NO_REQUEST_ID;
+    }
+    
+    /**
+     * @return the index of the length prefixed container id of a request frame, the reader index is left unchanged
+     */
+    public int containerIdIndex(ByteBuf byteBuf) {
+        int index = byteBuf.readerIndex();
+        if (!isCorrelated(byteBuf)) {
+            return index;
+        }
+        byte flags = byteBuf.getByte(index + 9);
+        index += 10;
+        if ((flags & ContainerCommand.FLAG_DEADLINE) != 0) {
+            while (byteBuf.getByte(index++) < 0) {
+                // skips the timeout varint
+            }
+        }
+        return index;
+    }
+    
+    public byte decodeFlags(ByteBuf byteBuf) {
+        return byteBuf.readByte();
+    }
+    
+    /**
+     * @return the number of milliseconds left before the deadline of the request when it was sent
+     */
+    public int decodeTimeout(ByteBuf byteBuf) {
+        return decodeVarint(byteBuf);
     }
 
     public void encodeCommand(Command<?> command, ByteBuf byteBuf) {
         
         if (command instanceof BatchExecutionCommandImpl) {
             BatchExecutionCommandImpl batch = (BatchExecutionCommandImpl) command;
-            byteBuf.writeByte(OPCODE_BATCH);
-            encodeString(batch.getLookup(), byteBuf);
-            byteBuf.writeByte(batch.getCommands().size());
-            for (Command<?> c : batch.getCommands()) {
-                encodeCommand(c, byteBuf);
+            if (batch.getCommands().size() <= Byte.MAX_VALUE) {
+                // single byte count, understood by servers without varint batches
+                byteBuf.writeByte(OPCODE_BATCH);
+                encodeString(batch.getLookup(), byteBuf);
+                byteBuf.writeByte(batch.getCommands().size());
+                for (Command<?> c : batch.getCommands()) {
+                    encodeCommand(c, byteBuf);
+                }
+            } else {
+                byteBuf.writeByte(OPCODE_BATCH_VARINT);
+                encodeBatch(batch, byteBuf);
             }
         } else if (command instanceof InsertObjectCommand) {
             InsertObjectCommand insert = (InsertObjectCommand) command;
@@ -80,7 +406,10 @@ public class Codec {
             byteBuf.writeBoolean(insert.isReturnObject());
             byteBuf.writeBoolean(insert.isDisconnected());
             encodeString(insert.getEntryPoint(), byteBuf);
-            encodeByteArray(marshall(insert.getObject()), byteBuf);            
+            marshall(insert.getObject(), byteBuf);            
+        } else if (command instanceof InsertElementsCommand) {
+            byteBuf.writeByte(OPCODE_INSERT_ELEMENTS);
+            encodeInsertElements((InsertElementsCommand) command, byteBuf);
         } else if (command instanceof FireAllRulesCommand) {
             //TODO support for AgendaFilter
             FireAllRulesCommand fire = (FireAllRulesCommand) command;
@@ -98,6 +427,55 @@ public class Codec {
         
     }
     
+    private void encodeInsertElements(InsertElementsCommand insert, ByteBuf byteBuf) {
+        encodeString(insert.getOutIdentifier(), byteBuf);
+        byteBuf.writeBoolean(insert.isReturnObject());
+        encodeString(insert.getEntryPoint(), byteBuf);
+        Collection<Object> objects = insert.getObjects();
+        encodeVarint(objects.size(), byteBuf);
+        String typeName = homogeneousTypeName(objects);
+        encodeString(typeName, byteBuf);
+        if (typeName == null) {
+            for (Object o : objects) {
+                marshall(o, byteBuf);
+            }
+            return;
+        }
+        ProtoStreamMarshaller protoStreamMarshaller = (ProtoStreamMarshaller) marshaller;
+        ByteBufOutputStream out = new ByteBufOutputStream(byteBuf);
+        for (Object o : objects) {
+            int lengthIndex = byteBuf.writerIndex();
+            byteBuf.writeInt(0);
+            protoStreamMarshaller.marshallRawTo(o, out);
+            byteBuf.setInt(lengthIndex, byteBuf.writerIndex() - lengthIndex - 4);
+        }
+    }
+    
+    /**
+     * @return the protobuf type of the objects if they all have the same class, null otherwise
+     */
+    private String homogeneousTypeName(Collection<Object> objects) {
+        if (!(marshaller instanceof ProtoStreamMarshaller) || objects.isEmpty()) {
+            return null;
+        }
+        Class<?> javaClass = null;
+        for (Object o : objects) {
+            if (o == null || (javaClass != null && o.getClass() != javaClass)) {
+                return null;
+            }
+            javaClass = o.getClass();
+        }
+        return ((ProtoStreamMarshaller) marshaller).getTypeName(javaClass);
+    }
+    
+    private void encodeBatch(BatchExecutionCommandImpl batch, ByteBuf byteBuf) {
+        encodeString(batch.getLookup(), byteBuf);
+        encodeVarint(batch.getCommands().size(), byteBuf);
+        for (Command<?> c : batch.getCommands()) {
+            encodeCommand(c, byteBuf);
+        }
+    }
+    
     public void encodeMap(Map<String, ?> map, ByteBuf byteBuf) {
         if (map == null) {
             byteBuf.writeInt(-1);
@@ -105,7 +483,7 @@ public class Codec {
         byteBuf.writeInt(map.size());
         for (String s : map.keySet()) {
             encodeString(s, byteBuf);
-            encodeByteArray(marshall(map.get(s)), byteBuf);
+            marshall(map.get(s), byteBuf);
         }
     }
     
@@ -116,7 +494,7 @@ public class Codec {
         }
         byteBuf.writeInt(list.size());
         for (Object o : list) {
-            encodeByteArray(marshall(o), byteBuf);
+            marshall(o, byteBuf);
         }
     }
     
@@ -125,10 +503,10 @@ public class Codec {
         if (size < 0) {
             return null;
         }
-        Map<String, Object> map = new HashMap<String, Object>(size);
+        Map<String, Object> map = new HashMap<String, Object>(capacity(checkCount(size, byteBuf), byteBuf));
         for (int i = 0; i < size; i++) {
             String key = decodeString(byteBuf);
-            Object o = unmarshall(decodeByteArray(byteBuf));
+            Object o = unmarshall(byteBuf);
             map.put(key, o);
         }
         return map;
@@ -139,9 +517,9 @@ public class Codec {
         if (size < 0) {
             return null;
         }
-        List<Object> list = new ArrayList<>(size);
+        List<Object> list = new ArrayList<>(capacity(checkCount(size, byteBuf), byteBuf));
         for (int i = 0; i < size; i++) {
-            Object o = unmarshall(decodeByteArray(byteBuf));
+            Object o = unmarshall(byteBuf);
             list.add(o);
         }
         return list;
@@ -155,24 +533,76 @@ public class Codec {
         }
     }
     
+    /**
+     * Marshalls the object straight into the buffer, prefixed with its length. The length 
+     * is back-patched once the object has been written.
+     */
+    public void marshall(Object o, ByteBuf byteBuf) {
+        if (marshaller instanceof ProtoStreamMarshaller) {
+            int lengthIndex = byteBuf.writerIndex();
+            byteBuf.writeInt(0);
+            if (compact) {
+                ((ProtoStreamMarshaller)marshaller).marshallCompactTo(o, new ByteBufOutputStream(byteBuf));
+            } else {
+                ((ProtoStreamMarshaller)marshaller).marshallTo(o, new ByteBufOutputStream(byteBuf));
+            }
+            byteBuf.setInt(lengthIndex, byteBuf.writerIndex() - lengthIndex - 4);
+        } else {
+            encodeByteArray(marshall(o), byteBuf);
+        }
+    }
+    
     public Object unmarshall(byte[] bytes) {
         if (marshaller instanceof ProtoStreamMarshaller) {
             return ((ProtoStreamMarshaller)marshaller).unmarshallFromBytes(bytes, Object.class);
         } else {
-            return marshaller.unmarshall(new String(bytes, Charset.forName("UTF-8")), Object.class);
+            return marshaller.unmarshall(new String(bytes, UTF_8), Object.class);
+        }
+    }
+    
+    /**
+     * Reads a length prefixed payload and unmarshalls it in place, without copying the
+     * payload out of the frame when the marshaller supports it. Heap buffers are read through 
+     * their backing array, direct buffers are streamed.
+     */
+    public Object unmarshall(ByteBuf byteBuf) {
+        if (marshaller instanceof ProtoStreamMarshaller) {
+            int length = byteBuf.readInt();
+            ProtoStreamMarshaller protoStreamMarshaller = (ProtoStreamMarshaller) marshaller;
+            if (byteBuf.hasArray()) {
+                ByteBuffer payload = byteBuf.nioBuffer(byteBuf.readerIndex(), length);
+                Object o = compact ? protoStreamMarshaller.unmarshallCompactFromByteBuffer(payload, Object.class)
+                                   : protoStreamMarshaller.unmarshallFromByteBuffer(payload, Object.class);
+                byteBuf.skipBytes(length);
+                return o;
+            }
+            int end = byteBuf.readerIndex() + length;
+            ByteBufInputStream payload = new ByteBufInputStream(byteBuf, length);
+            Object o = compact ? protoStreamMarshaller.unmarshallCompactFrom(payload, Object.class)
+                               : protoStreamMarshaller.unmarshallFrom(payload, Object.class);
+            byteBuf.readerIndex(end);
+            return o;
+        } else {
+            return unmarshall(decodeByteArray(byteBuf));
         }
     }
     
     public GenericCommand<?> decodeCommand(ByteBuf byteBuf) {
         byte b = byteBuf.readByte();
         if (b == OPCODE_BATCH) {
-            return decodeExecuteBatchCommand(byteBuf);
+            return decodeExecuteBatchCommand(byteBuf, false);
+        } else if (b == OPCODE_BATCH_VARINT) {
+            return decodeExecuteBatchCommand(byteBuf, true);
         } else if (b == OPCODE_FIRE) {
             return decodeFireAllRulesCommand(byteBuf);
         } else if (b == OPCODE_INSERT) {
             return decodeInsertObjectCommand(byteBuf);
         } else if (b == OPCODE_START_PROCESS){
             return decodeStartProcessCommand(byteBuf);
+        } else if (b == OPCODE_INSERT_EVENT) {
+            return decodeInsertEventCommand(byteBuf);
+        } else if (b == OPCODE_INSERT_ELEMENTS) {
+            return decodeInsertElementsCommand(byteBuf);
         } else {
             return null;
         }
@@ -192,10 +622,10 @@ public class Codec {
         return command;
     }
 
-    private GenericCommand<?> decodeExecuteBatchCommand(ByteBuf byteBuf) {
+    private GenericCommand<?> decodeExecuteBatchCommand(ByteBuf byteBuf, boolean varintCount) {
         String lookup = decodeString(byteBuf);
-        int numCommands = byteBuf.readByte();
-        List<GenericCommand<?>> commands = new ArrayList<GenericCommand<?>>(numCommands);
+        int numCommands = varintCount ? decodeCount(byteBuf) : checkCount(byteBuf.readByte(), byteBuf);
+        List<GenericCommand<?>> commands = new ArrayList<GenericCommand<?>>(capacity(numCommands, byteBuf));
         for (int i = 0; i < numCommands; i++) {
             commands.add(decodeCommand(byteBuf));
         }
@@ -217,7 +647,7 @@ public class Codec {
         boolean disconnected = byteBuf.readBoolean();
         String entryPoint = decodeString(byteBuf);
         
-        Object o = unmarshall(decodeByteArray(byteBuf));
+        Object o = unmarshall(byteBuf);
         InsertObjectCommand command = new InsertObjectCommand(o, disconnected);
         command.setOutIdentifier(outIdentifier);
         command.setReturnObject(returnObject);
@@ -225,21 +655,99 @@ public class Codec {
         return command;
     }
     
+    private GenericCommand<?> decodeInsertElementsCommand(ByteBuf byteBuf) {
+        String outIdentifier = decodeString(byteBuf);
+        boolean returnObject = byteBuf.readBoolean();
+        String entryPoint = decodeString(byteBuf);
+        int size = decodeCount(byteBuf);
+        String typeName = decodeString(byteBuf);
+        List<Object> objects = new ArrayList<>(capacity(size, byteBuf));
+        if (typeName == null) {
+            for (int i = 0; i < size; i++) {
+                objects.add(unmarshall(byteBuf));
+            }
+        } else {
+            ProtoStreamMarshaller protoStreamMarshaller = (ProtoStreamMarshaller) marshaller;
+            Class<?> javaClass = protoStreamMarshaller.getJavaClass(typeName);
+            for (int i = 0; i < size; i++) {
+                int length = byteBuf.readInt();
+                if (byteBuf.hasArray()) {
+                    objects.add(protoStreamMarshaller.unmarshallRawFromByteBuffer(byteBuf.nioBuffer(byteBuf.readerIndex(), length), javaClass));
+                    byteBuf.skipBytes(length);
+                } else {
+                    int end = byteBuf.readerIndex() + length;
+                    objects.add(protoStreamMarshaller.unmarshallRawFrom(new ByteBufInputStream(byteBuf, length), javaClass));
+                    byteBuf.readerIndex(end);
+                }
+            }
+        }
+        InsertElementsCommand command = new InsertElementsCommand(objects);
+        command.setOutIdentifier(outIdentifier);
+        command.setReturnObject(returnObject);
+        command.setEntryPoint(entryPoint);
+        return command;
+    }
+    
+    private GenericCommand<?> decodeInsertEventCommand(ByteBuf byteBuf) {
+        String entryPoint = decodeString(byteBuf);
+        InsertObjectCommand command = new InsertObjectCommand(unmarshall(byteBuf));
+        command.setEntryPoint(entryPoint);
+        command.setReturnObject(false);
+        return command;
+    }
+    
     public void encodeExecutionResults(ExecutionResults results, ByteBuf byteBuf) {
         byteBuf.writeInt(results.getIdentifiers().size());
         for (String key : results.getIdentifiers()) {
             encodeString(key, byteBuf);
-            encodeByteArray(marshall(results.getValue(key)), byteBuf);
+            marshall(results.getValue(key), byteBuf);
+        }
+    }
+    
+    public void encodeContainerExecutionResults(ContainerExecutionResults cer, ByteBuf byteBuf) {
+        if (cer.isCorrelated()) {
+            byteBuf.writeByte(PROTOCOL_V2);
+            byteBuf.writeLong(cer.getRequestId());
+            byteBuf.writeByte(cer.getFlags());
+            byteBuf.writeByte(cer.getStatus());
+            encodeString(cer.getContainerId(), byteBuf);
+            if (!cer.isSuccess()) {
+                encodeString(cer.getMessage(), byteBuf);
+                return;
+            }
+        }
+        setCompact(cer.isCompact());
+        encodeExecutionResults(cer.getExecutionResults(), byteBuf);
+    }
+    
+    /**
+     * Decodes a response frame. Uncorrelated responses only carry the execution results,
+     * so their container id is unknown.
+     */
+    public ContainerExecutionResults decodeContainerExecutionResults(ByteBuf byteBuf) {
+        if (!isCorrelated(byteBuf)) {
+            setCompact(false);
+            return new ContainerExecutionResults((String) null, decodeExecutionResults(byteBuf));
+        }
+        byteBuf.skipBytes(1);
+        long requestId = byteBuf.readLong();
+        byte flags = decodeFlags(byteBuf);
+        setCompact((flags & ContainerCommand.FLAG_COMPACT) != 0);
+        byte status = byteBuf.readByte();
+        String containerId = decodeString(byteBuf);
+        if (status != ContainerExecutionResults.STATUS_OK) {
+            return new ContainerExecutionResults(requestId, flags, containerId, status, decodeString(byteBuf));
         }
+        return new ContainerExecutionResults(requestId, flags, containerId, decodeExecutionResults(byteBuf));
     }
     
     public ExecutionResults decodeExecutionResults(ByteBuf byteBuf) {
         ExecutionResultImpl er = new ExecutionResultImpl();
         int size = byteBuf.readInt();
-        HashMap<String, Object> results = new HashMap<>(size); 
+        HashMap<String, Object> results = new HashMap<>(capacity(checkCount(size, byteBuf), byteBuf));
         for (int i = 0; i < size; i++) {
             String key = decodeString(byteBuf);
-            Object o = unmarshall(decodeByteArray(byteBuf));
+            Object o = unmarshall(byteBuf);
             results.put(key, o);
         }
         er.setResults(results);
@@ -249,5 +757,13 @@ public class Codec {
     public void setMarshaller(Marshaller marshaller) {
         this.marshaller = marshaller;
     }
+    
+    /**
+     * Switches between compact and wrapped objects. The compact form is only available 
+     * with a <code>ProtoStreamMarshaller</code>.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
 
 }
@@ -5,7 +5,6 @@ import java.util.List;
 import org.kie.server.api.marshalling.Marshaller;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageEncoder;
 
@@ -20,9 +19,13 @@ public class CommandEncoder extends MessageToMessageEncoder<ContainerCommand> {
     @Override
     protected void encode(ChannelHandlerContext ctx, ContainerCommand msg, List<Object> out) throws Exception {
         
-        ByteBuf byteBuf = Unpooled.buffer();
-        codec.encodeString(msg.getContainerId(), byteBuf);
-        codec.encodeCommand(msg.getCommand(), byteBuf);
+        ByteBuf byteBuf = ctx.alloc().ioBuffer();
+        try {
+            codec.encodeContainerCommand(msg, byteBuf);
+        } catch (Throwable t) {
+            byteBuf.release();
+            throw t;
+        }
         out.add(byteBuf);
     }
 
@@ -1,17 +1,106 @@
 package org.kie.server.ext.netty.codec;
 
+import java.util.concurrent.TimeUnit;
+
 import org.kie.api.command.Command;
+import org.kie.server.api.marshalling.Marshaller;
 
 public class ContainerCommand {
     
+    public static final long NO_REQUEST_ID = -1;
+    
+    /** objects are marshalled in compact form, with type ids instead of type names */
+    public static final byte FLAG_COMPACT = 0x01;
+    /** no response is sent, unless the command fails */
+    public static final byte FLAG_ONE_WAY = 0x02;
+    /** the request carries a timeout, after which it is not executed, or halted if it runs on the lane of its session */
+    public static final byte FLAG_DEADLINE = 0x04;
+    
+    private long requestId = NO_REQUEST_ID;
+    
+    private byte flags;
+    
     private String containerId;
     
     private Command<?> command;
+    
+    // not sent as is, in System.nanoTime() terms, see setTimeout
+    private long deadline;
+    
+    // not sent, see setMarshaller
+    private Marshaller marshaller;
+    
+    // not sent, see setAttachment
+    private Object attachment;
 
     public ContainerCommand(String containerId, Command<?> command) {
         this.containerId = containerId;
         this.command = command;
     }
+    
+    public ContainerCommand(long requestId, String containerId, Command<?> command) {
+        this(containerId, command);
+        this.requestId = requestId;
+    }
+    
+    public ContainerCommand(long requestId, byte flags, String containerId, Command<?> command) {
+        this(requestId, containerId, command);
+        this.flags = flags;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+    
+    /**
+     * @return true if the command carries a request id, in which case the response can be sent out of order
+     */
+    public boolean isCorrelated() {
+        return requestId != NO_REQUEST_ID;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+    
+    public boolean isCompact() {
+        return (flags & FLAG_COMPACT) != 0;
+    }
+    
+    /**
+     * @return true if the command is correlated and flagged one-way, in which case it is only answered
+     * with an error response if it fails
+     */
+    public boolean isOneWay() {
+        return isCorrelated() && (flags & FLAG_ONE_WAY) != 0;
+    }
+
+    public boolean hasDeadline() {
+        return (flags & FLAG_DEADLINE) != 0;
+    }
+    
+    /**
+     * Sets the deadline of the command to the given time from now. The time left is sent with the command 
+     * and the receiver sets its own deadline from it, so clocks do not need to be in sync.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (!isCorrelated()) {
+            throw new IllegalStateException("Only correlated commands can have a deadline");
+        }
+        this.flags |= FLAG_DEADLINE;
+        this.deadline = System.nanoTime() + unit.toNanos(timeout);
+    }
+    
+    /**
+     * @return the time left before the deadline in milliseconds, 0 if it has passed
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+    
+    public boolean isExpired() {
+        return hasDeadline() && deadline - System.nanoTime() <= 0;
+    }
 
     public String getContainerId() {
         return containerId;
@@ -21,4 +110,28 @@ public class ContainerCommand {
         return command;
     }
 
+    public Marshaller getMarshaller() {
+        return marshaller;
+    }
+
+    /**
+     * Keeps the marshaller a received command was decoded with, so that its results are encoded with 
+     * the same marshaller even if the container's marshaller is replaced in the meantime.
+     */
+    public void setMarshaller(Marshaller marshaller) {
+        this.marshaller = marshaller;
+    }
+
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * Keeps an object of the receiver with the command while it is processed, which is handed over
+     * to the response to the command.
+     */
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
 }
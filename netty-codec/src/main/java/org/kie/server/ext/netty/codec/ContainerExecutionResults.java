@@ -1,17 +1,100 @@
 package org.kie.server.ext.netty.codec;
 
 import org.kie.api.runtime.ExecutionResults;
+import org.kie.server.api.marshalling.Marshaller;
 
 public class ContainerExecutionResults {
     
+    public static final byte STATUS_OK = 0x00;
+    public static final byte STATUS_ERROR = 0x01;
+    public static final byte STATUS_REJECTED = 0x02;
+    public static final byte STATUS_TIMEOUT = 0x03;
+    
+    private long requestId = ContainerCommand.NO_REQUEST_ID;
+    
+    private byte flags;
+    
+    private byte status = STATUS_OK;
+    
     private String containerId;
     
     private ExecutionResults executionResults;
+    
+    private String message;
+    
+    // not sent, the marshaller of the command this answers
+    private Marshaller marshaller;
+    
+    // not sent, the attachment of the command this answers
+    private Object attachment;
 
     public ContainerExecutionResults(String containerId, ExecutionResults executionResults) {
         this.containerId = containerId;
         this.executionResults = executionResults;
     }
+    
+    public ContainerExecutionResults(long requestId, String containerId, ExecutionResults executionResults) {
+        this(containerId, executionResults);
+        this.requestId = requestId;
+    }
+    
+    public ContainerExecutionResults(long requestId, String containerId, byte status, String message) {
+        this.requestId = requestId;
+        this.containerId = containerId;
+        this.status = status;
+        this.message = message;
+    }
+
+    /**
+     * Response to a command, with the request id, flags and marshaller of the command.
+     */
+    public ContainerExecutionResults(ContainerCommand cc, ExecutionResults executionResults) {
+        this(cc.getRequestId(), cc.getContainerId(), executionResults);
+        this.flags = cc.getFlags();
+        this.marshaller = cc.getMarshaller();
+        this.attachment = cc.getAttachment();
+    }
+    
+    public ContainerExecutionResults(ContainerCommand cc, byte status, String message) {
+        this(cc.getRequestId(), cc.getContainerId(), status, message);
+        this.flags = cc.getFlags();
+        this.marshaller = cc.getMarshaller();
+        this.attachment = cc.getAttachment();
+    }
+    
+    public ContainerExecutionResults(long requestId, byte flags, String containerId, ExecutionResults executionResults) {
+        this(requestId, containerId, executionResults);
+        this.flags = flags;
+    }
+    
+    public ContainerExecutionResults(long requestId, byte flags, String containerId, byte status, String message) {
+        this(requestId, containerId, status, message);
+        this.flags = flags;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+    
+    public boolean isCorrelated() {
+        return requestId != ContainerCommand.NO_REQUEST_ID;
+    }
+    
+    public byte getFlags() {
+        return flags;
+    }
+    
+    public boolean isCompact() {
+        return (flags & ContainerCommand.FLAG_COMPACT) != 0;
+    }
+    
+    public byte getStatus() {
+        return status;
+    }
+    
+    public boolean isSuccess() {
+        return status == STATUS_OK;
+    }
 
     public String getContainerId() {
         return containerId;
@@ -20,5 +103,20 @@ public class ContainerExecutionResults {
     public ExecutionResults getExecutionResults() {
         return executionResults;
     }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    /**
+     * @return the marshaller to encode this response with, or null to use the container's current one
+     */
+    public Marshaller getMarshaller() {
+        return marshaller;
+    }
+    
+    public Object getAttachment() {
+        return attachment;
+    }
 
 }
@@ -0,0 +1,143 @@
+package org.kie.server.ext.netty.codec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.infinispan.protostream.BaseMarshaller;
+import org.infinispan.protostream.FileDescriptorSource;
+import org.infinispan.protostream.SerializationContext;
+import org.kie.server.ext.netty.marshaller.ProtoStreamMarshaller;
+import org.kie.server.ext.netty.marshaller.TypeIdTable;
+
+/**
+ * The proto schemas of a container with the type ids used by the compact wire format, identified by
+ * a hash of both so that clients can cache them.
+ */
+public class ContainerSchema {
+    
+    public static final byte STATUS_OK = 0x00;
+    public static final byte STATUS_NOT_MODIFIED = 0x01;
+    public static final byte STATUS_NOT_FOUND = 0x02;
+    
+    private long requestId;
+    
+    private byte status = STATUS_OK;
+    
+    private String containerId;
+    
+    private String hash;
+    
+    private Map<String, String> protoFiles;
+    
+    private Map<Integer, String> typeIds;
+
+    public ContainerSchema(String containerId, Map<String, String> protoFiles, Map<Integer, String> typeIds) {
+        this(0, STATUS_OK, containerId, hash(protoFiles, typeIds), protoFiles, typeIds);
+    }
+    
+    public ContainerSchema(long requestId, byte status, String containerId, String hash, Map<String, String> protoFiles, Map<Integer, String> typeIds) {
+        this.requestId = requestId;
+        this.status = status;
+        this.containerId = containerId;
+        this.hash = hash;
+        this.protoFiles = protoFiles;
+        this.typeIds = typeIds;
+    }
+    
+    /**
+     * @return the answer to the request, without schemas if the client already has them
+     */
+    public ContainerSchema answer(SchemaRequest request) {
+        if (hash.equals(request.getKnownHash())) {
+            return new ContainerSchema(request.getRequestId(), STATUS_NOT_MODIFIED, containerId, hash, 
+                                       Collections.<String, String>emptyMap(), Collections.<Integer, String>emptyMap());
+        }
+        return new ContainerSchema(request.getRequestId(), STATUS_OK, containerId, hash, protoFiles, typeIds);
+    }
+    
+    public static ContainerSchema notFound(SchemaRequest request) {
+        return new ContainerSchema(request.getRequestId(), STATUS_NOT_FOUND, request.getContainerId(), "", 
+                                   Collections.<String, String>emptyMap(), Collections.<Integer, String>emptyMap());
+    }
+    
+    /**
+     * Builds a marshaller from the downloaded schemas and the given marshallers, using the type ids of the server.
+     */
+    public ProtoStreamMarshaller createMarshaller(Collection<BaseMarshaller<?>> marshallers) throws IOException {
+        ProtoStreamMarshaller marshaller = new ProtoStreamMarshaller();
+        SerializationContext ctx = marshaller.getSerializationContext();
+        FileDescriptorSource source = new FileDescriptorSource();
+        for (Map.Entry<String, String> protoFile : protoFiles.entrySet()) {
+            source.addProtoFile(protoFile.getKey(), protoFile.getValue());
+        }
+        ctx.registerProtoFiles(source);
+        for (BaseMarshaller<?> m : marshallers) {
+            ctx.registerMarshaller(m);
+        }
+        marshaller.setTypeIdTable(new TypeIdTable(ctx, typeIds));
+        return marshaller;
+    }
+    
+    /**
+     * SHA-256 of the proto files, in the order of their names, followed by the type ids, in the order of the ids.
+     * The type ids can change while the proto files do not, when marshallers are added or removed.
+     */
+    public static String hash(Map<String, String> protoFiles, Map<Integer, String> typeIds) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Charset utf8 = Charset.forName("UTF-8");
+            for (Map.Entry<String, String> protoFile : new TreeMap<>(protoFiles).entrySet()) {
+                digest.update(protoFile.getKey().getBytes(utf8));
+                digest.update((byte) 0);
+                digest.update(protoFile.getValue().getBytes(utf8));
+                digest.update((byte) 0);
+            }
+            // separates the type ids from the proto files, whose names are never empty
+            digest.update((byte) 0);
+            for (Map.Entry<Integer, String> typeId : new TreeMap<>(typeIds).entrySet()) {
+                digest.update(String.valueOf(typeId.getKey()).getBytes(utf8));
+                digest.update((byte) 0);
+                digest.update(typeId.getValue().getBytes(utf8));
+                digest.update((byte) 0);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public byte getStatus() {
+        return status;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public Map<String, String> getProtoFiles() {
+        return protoFiles;
+    }
+
+    public Map<Integer, String> getTypeIds() {
+        return typeIds;
+    }
+
+}
@@ -0,0 +1,44 @@
+package org.kie.server.ext.netty.codec;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+/**
+ * Encodes the control frames exchanged by clients and servers: {@link Handshake}, {@link SchemaRequest},
+ * {@link ContainerSchema} and {@link SubscribeRequest}.
+ */
+public class ControlFrameEncoder extends MessageToMessageEncoder<Object> {
+    
+    private Codec codec = new Codec();
+    
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof Handshake || msg instanceof SchemaRequest || msg instanceof ContainerSchema
+                || msg instanceof SubscribeRequest;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+        
+        ByteBuf byteBuf = ctx.alloc().ioBuffer();
+        try {
+            if (msg instanceof Handshake) {
+                codec.encodeHandshake((Handshake) msg, byteBuf);
+            } else if (msg instanceof SchemaRequest) {
+                codec.encodeSchemaRequest((SchemaRequest) msg, byteBuf);
+            } else if (msg instanceof SubscribeRequest) {
+                codec.encodeSubscribeRequest((SubscribeRequest) msg, byteBuf);
+            } else {
+                codec.encodeContainerSchema((ContainerSchema) msg, byteBuf);
+            }
+        } catch (Throwable t) {
+            byteBuf.release();
+            throw t;
+        }
+        out.add(byteBuf);
+    }
+
+}
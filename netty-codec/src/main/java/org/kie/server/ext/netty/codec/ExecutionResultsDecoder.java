@@ -9,6 +9,13 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
 
+/**
+ * Decodes response frames. Uncorrelated responses are passed on as <code>ExecutionResults</code>,
+ * correlated responses as <code>ContainerExecutionResults</code> carrying the request id.
+ * <p>
+ * The server's answer to a {@link Handshake} is kept in the {@link Handshake#NEGOTIATED} channel attribute
+ * and passed on, as are {@link ContainerSchema} and {@link PushMessage} frames.
+ */
 public class ExecutionResultsDecoder extends MessageToMessageDecoder<ByteBuf> {
     
     private Codec codec = new Codec();
@@ -20,8 +27,22 @@ public class ExecutionResultsDecoder extends MessageToMessageDecoder<ByteBuf> {
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
         
-        ExecutionResults results = codec.decodeExecutionResults(msg);
-        out.add(results);        
+        byte controlFrame = codec.controlFrame(msg);
+        if (controlFrame == Codec.FRAME_HANDSHAKE) {
+            Handshake handshake = codec.decodeHandshake(msg);
+            ctx.channel().attr(Handshake.NEGOTIATED).set(handshake);
+            out.add(handshake);
+        } else if (controlFrame == Codec.FRAME_SCHEMA) {
+            out.add(codec.decodeContainerSchema(msg));
+        } else if (controlFrame == Codec.FRAME_PUSH) {
+            out.add(codec.decodePushMessage(msg));
+        } else if (codec.isCorrelated(msg)) {
+            out.add(codec.decodeContainerExecutionResults(msg));
+        } else {
+            codec.setCompact(false);
+            ExecutionResults results = codec.decodeExecutionResults(msg);
+            out.add(results);
+        }
     }
 
 }
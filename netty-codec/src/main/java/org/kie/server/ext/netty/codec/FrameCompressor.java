@@ -0,0 +1,71 @@
+package org.kie.server.ext.netty.codec;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.compression.SnappyFramedEncoder;
+
+/**
+ * Compresses outgoing frames with Snappy once compression has been negotiated in the {@link Handshake}
+ * of the connection. Each frame is then prefixed with a flag byte telling whether it is compressed; frames 
+ * smaller than the threshold are sent as they are. The compressed frames of a connection form one Snappy 
+ * framed stream, decompressed by the {@link FrameDecompressor} on the other side.
+ * <p>
+ * Sits right after the length field prepender, so that it sees whole frames.
+ */
+public class FrameCompressor extends MessageToMessageEncoder<ByteBuf> {
+    
+    static final byte FLAG_RAW = 0x00;
+    static final byte FLAG_SNAPPY = 0x01;
+    
+    public static final int DEFAULT_THRESHOLD = 1024;
+    
+    private final int threshold;
+    
+    private final Compressor compressor = new Compressor();
+
+    public FrameCompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        if (!isNegotiated(ctx)) {
+            out.add(msg.retain());
+        } else if (msg.readableBytes() < threshold) {
+            CompositeByteBuf frame = ctx.alloc().compositeBuffer(2);
+            frame.addComponent(ctx.alloc().buffer(1).writeByte(FLAG_RAW));
+            frame.addComponent(msg.retain());
+            frame.writerIndex(frame.capacity());
+            out.add(frame);
+        } else {
+            ByteBuf frame = ctx.alloc().ioBuffer(msg.readableBytes() / 2 + 16);
+            try {
+                frame.writeByte(FLAG_SNAPPY);
+                compressor.compress(ctx, msg, frame);
+            } catch (Throwable t) {
+                frame.release();
+                throw t;
+            }
+            out.add(frame);
+        }
+    }
+    
+    static boolean isNegotiated(ChannelHandlerContext ctx) {
+        Handshake handshake = ctx.channel().attr(Handshake.NEGOTIATED).get();
+        return handshake != null && handshake.supports(Handshake.CAPABILITY_COMPRESSION);
+    }
+    
+    // gives access to the framed encoding, without the encoder being part of the pipeline
+    private static class Compressor extends SnappyFramedEncoder {
+        
+        void compress(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
+            encode(ctx, in, out);
+        }
+        
+    }
+
+}
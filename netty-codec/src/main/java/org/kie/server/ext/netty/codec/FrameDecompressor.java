@@ -0,0 +1,79 @@
+package org.kie.server.ext.netty.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.SnappyFramedDecoder;
+
+/**
+ * Decompresses the frames sent by a {@link FrameCompressor}, once compression has been negotiated in the 
+ * {@link Handshake} of the connection.
+ * <p>
+ * Sits right after the frame decoder.
+ */
+public class FrameDecompressor extends MessageToMessageDecoder<ByteBuf> {
+    
+    private final Decompressor decompressor = new Decompressor();
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        if (!FrameCompressor.isNegotiated(ctx)) {
+            out.add(msg.retain());
+            return;
+        }
+        byte flag = msg.readByte();
+        if (flag == FrameCompressor.FLAG_RAW) {
+            out.add(msg.retain());
+        } else if (flag == FrameCompressor.FLAG_SNAPPY) {
+            List<Object> chunks = new ArrayList<>(1);
+            try {
+                decompressor.decompress(ctx, msg, chunks);
+            } catch (Throwable t) {
+                for (Object chunk : chunks) {
+                    ((ByteBuf) chunk).release();
+                }
+                throw t;
+            }
+            if (chunks.size() == 1) {
+                out.add(chunks.get(0));
+            } else {
+                CompositeByteBuf frame = ctx.alloc().compositeBuffer(chunks.size());
+                for (Object chunk : chunks) {
+                    frame.addComponent((ByteBuf) chunk);
+                }
+                frame.writerIndex(frame.capacity());
+                out.add(frame);
+            }
+        } else {
+            throw new DecompressionException("Unknown frame compression " + flag);
+        }
+    }
+    
+    // gives access to the framed decoding, without the decoder being part of the pipeline
+    private static class Decompressor extends SnappyFramedDecoder {
+        
+        Decompressor() {
+            super(true);
+        }
+        
+        /**
+         * Decodes all the chunks of a frame, a frame only holds whole chunks.
+         */
+        void decompress(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+            while (in.isReadable()) {
+                int readable = in.readableBytes();
+                decode(ctx, in, out);
+                if (in.readableBytes() == readable) {
+                    throw new DecompressionException("Truncated compressed frame");
+                }
+            }
+        }
+        
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.kie.server.ext.netty.codec;
+
+import io.netty.util.AttributeKey;
+
+/**
+ * First message exchanged on a connection. The client sends the highest protocol version and the
+ * capabilities it supports, the server answers with the version and capabilities to use on the
+ * connection, which both sides keep in the {@link #NEGOTIATED} channel attribute.
+ * <p>
+ * Connections without a handshake use protocol version 2 without optional capabilities.
+ */
+public class Handshake {
+    
+    public static final byte PROTOCOL_VERSION = 2;
+    
+    /** correlated requests, answered in any order */
+    public static final int CAPABILITY_PIPELINING = 0x01;
+    /** objects marshalled with type ids */
+    public static final int CAPABILITY_COMPACT = 0x02;
+    /** compressed frames */
+    public static final int CAPABILITY_COMPRESSION = 0x04;
+    
+    public static final AttributeKey<Handshake> NEGOTIATED = AttributeKey.valueOf("kie.netty.handshake");
+    
+    private byte version;
+    
+    private int capabilities;
+
+    public Handshake(byte version, int capabilities) {
+        this.version = version;
+        this.capabilities = capabilities;
+    }
+    
+    /**
+     * @return the handshake the server answers to this one, given its own version and capabilities
+     */
+    public Handshake negotiate(byte serverVersion, int serverCapabilities) {
+        return new Handshake((byte) Math.min(version, serverVersion), capabilities & serverCapabilities);
+    }
+
+    public byte getVersion() {
+        return version;
+    }
+
+    public int getCapabilities() {
+        return capabilities;
+    }
+    
+    public boolean supports(int capability) {
+        return (capabilities & capability) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Handshake [version=" + version + ", capabilities=" + Integer.toBinaryString(capabilities) + "]";
+    }
+
+}
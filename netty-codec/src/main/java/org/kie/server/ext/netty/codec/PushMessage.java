@@ -0,0 +1,57 @@
+package org.kie.server.ext.netty.codec;
+
+import org.kie.server.api.marshalling.Marshaller;
+
+/**
+ * An output of a session pushed to a subscriber, see {@link SubscribeRequest}.
+ */
+public class PushMessage {
+    
+    private long requestId;
+    
+    private byte flags;
+    
+    private String containerId;
+    
+    private Object object;
+    
+    // not sent, the marshaller of the subscription
+    private Marshaller marshaller;
+
+    public PushMessage(long requestId, byte flags, String containerId, Object object) {
+        this.requestId = requestId;
+        this.flags = flags;
+        this.containerId = containerId;
+        this.object = object;
+    }
+    
+    public PushMessage(long requestId, byte flags, String containerId, Object object, Marshaller marshaller) {
+        this(requestId, flags, containerId, object);
+        this.marshaller = marshaller;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+    
+    public boolean isCompact() {
+        return (flags & ContainerCommand.FLAG_COMPACT) != 0;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public Object getObject() {
+        return object;
+    }
+
+    public Marshaller getMarshaller() {
+        return marshaller;
+    }
+
+}
@@ -0,0 +1,33 @@
+package org.kie.server.ext.netty.codec;
+
+/**
+ * Asks the server for the proto schemas and type ids of a container. A client that has cached the
+ * schema sends its hash, the server then only sends the schema again if it has changed.
+ */
+public class SchemaRequest {
+    
+    private long requestId;
+    
+    private String containerId;
+    
+    private String knownHash;
+
+    public SchemaRequest(long requestId, String containerId, String knownHash) {
+        this.requestId = requestId;
+        this.containerId = containerId;
+        this.knownHash = knownHash;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public String getKnownHash() {
+        return knownHash;
+    }
+
+}
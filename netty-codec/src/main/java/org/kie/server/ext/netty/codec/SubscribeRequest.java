@@ -0,0 +1,84 @@
+package org.kie.server.ext.netty.codec;
+
+/**
+ * Subscribes to, or unsubscribes from, the outputs of a session. Outputs are then pushed to the client 
+ * as {@link PushMessage}s carrying the request id of the subscription, until it unsubscribes with the same 
+ * request id or the connection closes. The subscription itself is answered with an empty 
+ * <code>ContainerExecutionResults</code>, or an error.
+ */
+public class SubscribeRequest {
+    
+    /** objects sent by the rules to the KIE channel of the given name */
+    public static final byte KIND_CHANNEL = 0x00;
+    /** objects of the given protobuf type inserted in the session */
+    public static final byte KIND_INSERTED = 0x01;
+    
+    private long requestId;
+    
+    private byte flags;
+    
+    private String containerId;
+    
+    private String lookup;
+    
+    private byte kind;
+    
+    private String name;
+    
+    private boolean subscribe = true;
+
+    public SubscribeRequest(long requestId, byte flags, String containerId, String lookup, byte kind, String name, boolean subscribe) {
+        this.requestId = requestId;
+        this.flags = flags;
+        this.containerId = containerId;
+        this.lookup = lookup;
+        this.kind = kind;
+        this.name = name;
+        this.subscribe = subscribe;
+    }
+    
+    public static SubscribeRequest channel(long requestId, String containerId, String lookup, String channelName) {
+        return new SubscribeRequest(requestId, (byte) 0, containerId, lookup, KIND_CHANNEL, channelName, true);
+    }
+    
+    public static SubscribeRequest inserted(long requestId, String containerId, String lookup, String typeName) {
+        return new SubscribeRequest(requestId, (byte) 0, containerId, lookup, KIND_INSERTED, typeName, true);
+    }
+    
+    public SubscribeRequest unsubscribe() {
+        return new SubscribeRequest(requestId, flags, containerId, lookup, kind, name, false);
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+    
+    public boolean isCompact() {
+        return (flags & ContainerCommand.FLAG_COMPACT) != 0;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public String getLookup() {
+        return lookup;
+    }
+
+    public byte getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isSubscribe() {
+        return subscribe;
+    }
+
+}
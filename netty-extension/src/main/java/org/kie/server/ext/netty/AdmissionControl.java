@@ -0,0 +1,171 @@
+package org.kie.server.ext.netty;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.kie.server.services.api.KieServerRegistry;
+
+/**
+ * Limits the number of requests in flight, from the time they are read to the time their response is
+ * handed to the channel, per channel and per container.
+ * <p>
+ * A channel over its limit, or sending to a container over its limit, stops reading until requests
+ * complete, so that the requests waiting for an executor and the responses waiting for the socket stay
+ * bounded whatever the load. With fast reject, correlated requests over a limit are answered right away
+ * with <code>STATUS_REJECTED</code> instead.
+ * <p>
+ * Only the containers of the registry are counted, until they are disposed. A request is released against the
+ * permits it was acquired from, so requests still in flight when their container is disposed are not counted 
+ * against a container deployed again with the same id.
+ */
+public class AdmissionControl {
+    
+    private final int maxPerChannel;
+    
+    private final int maxPerContainer;
+    
+    private final boolean reject;
+    
+    private final KieServerRegistry registry;
+    
+    private final ConcurrentMap<String, Permits> containers = new ConcurrentHashMap<>();
+    
+    private final LongAdder rejected = new LongAdder();
+    
+    private final LongAdder paused = new LongAdder();
+    
+    public AdmissionControl(int maxPerChannel, int maxPerContainer, boolean reject, KieServerRegistry registry) {
+        this.maxPerChannel = maxPerChannel;
+        this.maxPerContainer = maxPerContainer;
+        this.reject = reject;
+        this.registry = registry;
+    }
+    
+    /**
+     * Counts a request to the container in flight, even if the container is at its limit.
+     * 
+     * @return the permits the request is counted against, to release it with, or null for a container 
+     *         not in the registry, which is not counted
+     */
+    public Permits acquire(String containerId) {
+        Permits permits = permits(containerId);
+        if (permits != null) {
+            permits.inFlight.incrementAndGet();
+        }
+        return permits;
+    }
+    
+    /**
+     * @return true if more requests are counted against the permits than their container allows
+     */
+    public boolean isOverLimit(Permits permits) {
+        return permits != null && permits.inFlight.get() > maxPerContainer;
+    }
+    
+    /**
+     * Releases a request against the permits returned when it was acquired.
+     */
+    public void release(Permits permits) {
+        if (permits != null && permits.inFlight.decrementAndGet() < maxPerContainer) {
+            permits.wakeUp();
+        }
+    }
+    
+    /**
+     * Runs the given task, from any thread, once the container of the permits is below its limit or disposed.
+     */
+    public void whenAvailable(Permits permits, Runnable task) {
+        if (permits == null) {
+            task.run();
+            return;
+        }
+        permits.waiters.add(task);
+        if (permits.inFlight.get() < maxPerContainer) {
+            permits.wakeUp();
+        }
+    }
+    
+    /**
+     * @return the permits of the container, or null if it is not in the registry
+     */
+    private Permits permits(String containerId) {
+        Permits permits = containers.get(containerId);
+        if (permits == null && registry.getContainer(containerId) != null) {
+            permits = containers.computeIfAbsent(containerId, k -> new Permits());
+        }
+        return permits;
+    }
+    
+    /**
+     * Stops counting the requests to the container, the channels waiting for it resume reading.
+     */
+    public void disposeContainer(String containerId) {
+        Permits permits = containers.remove(containerId);
+        if (permits != null) {
+            permits.wakeUp();
+        }
+    }
+    
+    public boolean isChannelFull(int inFlight) {
+        return inFlight >= maxPerChannel;
+    }
+    
+    public boolean isReject() {
+        return reject;
+    }
+    
+    void rejected() {
+        rejected.increment();
+    }
+    
+    void paused() {
+        paused.increment();
+    }
+    
+    public int getMaxPerChannel() {
+        return maxPerChannel;
+    }
+    
+    public int getMaxPerContainer() {
+        return maxPerContainer;
+    }
+    
+    public long getRejected() {
+        return rejected.sum();
+    }
+    
+    public long getPaused() {
+        return paused.sum();
+    }
+    
+    public Map<String, Integer> getInFlight() {
+        Map<String, Integer> inFlight = new HashMap<>();
+        containers.forEach((containerId, permits) -> inFlight.put(containerId, permits.inFlight.get()));
+        return inFlight;
+    }
+    
+    /**
+     * The requests in flight to a container, and the channels waiting for it.
+     */
+    public static class Permits {
+        
+        private final AtomicInteger inFlight = new AtomicInteger();
+        
+        private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+        
+        private void wakeUp() {
+            Runnable waiter;
+            while ((waiter = waiters.poll()) != null) {
+                waiter.run();
+            }
+        }
+        
+    }
+
+}
@@ -0,0 +1,88 @@
+package org.kie.server.ext.netty;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Heap allocation per request spent in the codec, measured with the per thread allocation
+ * counters of the JVM. Disabled unless <code>org.kie.server.drools-netty.ext.metrics.allocation</code> is set.
+ */
+public class AllocationMetrics {
+    
+    private static final boolean enabled = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.metrics.allocation", "false"));
+    
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    
+    private final LongAdder decodedRequests = new LongAdder();
+    private final LongAdder decodeBytes = new LongAdder();
+    private final LongAdder encodedResponses = new LongAdder();
+    private final LongAdder encodeBytes = new LongAdder();
+    
+    public AllocationMetrics() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (enabled && bean instanceof com.sun.management.ThreadMXBean 
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threadMXBean = null;
+        }
+    }
+    
+    public boolean isEnabled() {
+        return threadMXBean != null;
+    }
+    
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 when disabled
+     */
+    public long allocatedBytes() {
+        if (threadMXBean == null) {
+            return -1;
+        }
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    public void recordDecode(long allocatedBefore) {
+        if (allocatedBefore < 0) {
+            return;
+        }
+        decodeBytes.add(allocatedBytes() - allocatedBefore);
+        decodedRequests.increment();
+    }
+    
+    public void recordEncode(long allocatedBefore) {
+        if (allocatedBefore < 0) {
+            return;
+        }
+        encodeBytes.add(allocatedBytes() - allocatedBefore);
+        encodedResponses.increment();
+    }
+    
+    public long getDecodedRequests() {
+        return decodedRequests.sum();
+    }
+    
+    public long getEncodedResponses() {
+        return encodedResponses.sum();
+    }
+    
+    public long getDecodeBytesPerRequest() {
+        long requests = decodedRequests.sum();
+        return requests == 0 ? 0 : decodeBytes.sum() / requests;
+    }
+    
+    public long getEncodeBytesPerResponse() {
+        long responses = encodedResponses.sum();
+        return responses == 0 ? 0 : encodeBytes.sum() / responses;
+    }
+    
+    public void reset() {
+        decodedRequests.reset();
+        decodeBytes.reset();
+        encodedResponses.reset();
+        encodeBytes.reset();
+    }
+
+}
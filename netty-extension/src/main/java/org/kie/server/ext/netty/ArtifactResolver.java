@@ -13,6 +13,14 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.apache.maven.project.MavenProject;
 import org.drools.compiler.kie.builder.impl.InternalKieContainer;
@@ -33,10 +41,28 @@ import org.slf4j.LoggerFactory;
 public class ArtifactResolver {
     
     private static final Logger log = LoggerFactory.getLogger(KieScanner.class);
+    
+    private static final int RESOLVE_THREADS = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.resolve.threads", "4"));
+    
+    // bounded, and shared by all containers, so that creating many containers at once does not flood the repositories
+    private static final AtomicInteger resolverThreads = new AtomicInteger();
+    private static final ExecutorService resolvePool = Executors.newFixedThreadPool(Math.max(1, RESOLVE_THREADS), 
+                                                                                    r -> {
+                                                                                        Thread t = new Thread(r, "netty-resolver-" + resolverThreads.incrementAndGet());
+                                                                                        t.setDaemon(true);
+                                                                                        return t;
+                                                                                    });
+    
+    // transitive dependencies and resolved artifacts of released versions, shared by all containers
+    private static final ConcurrentMap<String, CompletableFuture<List<DependencyDescriptor>>> transitiveDependencies = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, CompletableFuture<Artifact>> resolvedArtifacts = new ConcurrentHashMap<>();
 
     private final PomParser pomParser;
 
     private final MavenRepository mavenRepository;
+    
+    // the artifacts this resolver could not resolve, or whose dependencies it could not resolve
+    private final Set<String> unresolved = ConcurrentHashMap.newKeySet();
 
     ArtifactResolver() {
         mavenRepository = MavenRepository.getMavenRepository();
@@ -69,11 +95,34 @@ public class ArtifactResolver {
         return getAllDependecies( DependencyFilter.TAKE_ALL_FILTER );
     }
 
+    /**
+     * @return the artifacts that could not be resolved by this resolver, or whose dependencies could not be resolved
+     */
+    Set<String> getUnresolved() {
+        return unresolved;
+    }
+
+    /**
+     * Resolves the transitive dependencies of the direct dependencies concurrently. The dependencies
+     * of released artifacts are resolved once, and shared with the other containers depending on them.
+     * A direct dependency whose dependencies cannot be resolved is returned without them, and 
+     * recorded as {@link #getUnresolved() unresolved}.
+     */
     Collection<DependencyDescriptor> getAllDependecies( DependencyFilter dependencyFilter ) {
+        List<DependencyDescriptor> directDependencies = getPomDirectDependencies(dependencyFilter);
+        List<CompletableFuture<List<DependencyDescriptor>>> transitive = new ArrayList<>(directDependencies.size());
+        for (DependencyDescriptor dep : directDependencies) {
+            transitive.add(getArtifactDependeciesAsync( dep ));
+        }
         Set<DependencyDescriptor> dependencies = new HashSet<DependencyDescriptor>();
-        for (DependencyDescriptor dep : getPomDirectDependencies(dependencyFilter)) {
+        for (int i = 0; i < directDependencies.size(); i++) {
+            DependencyDescriptor dep = directDependencies.get(i);
             dependencies.add( dep );
-            for (DependencyDescriptor transitiveDep : getArtifactDependecies( dep.toString() )) {
+            List<DependencyDescriptor> transitiveDeps = join(transitive.get(i), dep.toString());
+            if (transitiveDeps == null) {
+                continue;
+            }
+            for (DependencyDescriptor transitiveDep : transitiveDeps) {
                 if (dependencyFilter.accept( dep.getReleaseId(), dep.getScope() )) {
                     dependencies.add( transitiveDep );
                 }
@@ -81,6 +130,96 @@ public class ArtifactResolver {
         }
         return dependencies;
     }
+    
+    private CompletableFuture<List<DependencyDescriptor>> getArtifactDependeciesAsync(DependencyDescriptor dep) {
+        String artifactName = dep.toString();
+        if (dep.isSnapshot()) {
+            return CompletableFuture.supplyAsync(() -> resolveDependencies( dep ), resolvePool);
+        }
+        return shared(transitiveDependencies, artifactName, () -> resolveDependencies( dep ));
+    }
+    
+    /**
+     * The repository answers no dependencies when it cannot reach the artifact, which is told apart from 
+     * an artifact without dependencies by resolving the artifact itself.
+     */
+    private List<DependencyDescriptor> resolveDependencies(DependencyDescriptor dep) {
+        List<DependencyDescriptor> dependencies = getArtifactDependecies( dep.toString() );
+        if (dependencies.isEmpty() && resolveArtifact( dep.getReleaseId() ) == null) {
+            throw new IllegalStateException("Unable to resolve the dependencies of " + dep);
+        }
+        return dependencies;
+    }
+    
+    private Artifact resolveRequired(ReleaseId releaseId) {
+        Artifact artifact = resolveArtifact( releaseId );
+        if (artifact == null) {
+            throw new IllegalStateException("Unable to resolve " + releaseId);
+        }
+        return artifact;
+    }
+    
+    /**
+     * Resolves the artifacts concurrently. An artifact that cannot be resolved is returned as null, and
+     * recorded as {@link #getUnresolved() unresolved}.
+     * 
+     * @return the artifacts, in the order of the release ids
+     */
+    List<Artifact> resolveArtifacts(Collection<ReleaseId> releaseIds) {
+        List<CompletableFuture<Artifact>> futures = new ArrayList<>(releaseIds.size());
+        for (ReleaseId releaseId : releaseIds) {
+            if (releaseId.isSnapshot()) {
+                futures.add(CompletableFuture.supplyAsync(() -> resolveRequired( releaseId ), resolvePool));
+            } else {
+                futures.add(shared(resolvedArtifacts, releaseId.toExternalForm(), () -> resolveRequired( releaseId )));
+            }
+        }
+        List<Artifact> artifacts = new ArrayList<>(futures.size());
+        int i = 0;
+        for (ReleaseId releaseId : releaseIds) {
+            artifacts.add(join(futures.get(i++), releaseId.toExternalForm()));
+        }
+        return artifacts;
+    }
+    
+    /**
+     * @return the result of the resolution, or null if it failed
+     */
+    private <T> T join(CompletableFuture<T> future, String artifactName) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            log.warn("Unable to resolve " + artifactName, e.getCause());
+            unresolved.add(artifactName);
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the cached resolution, or starts it. A failed resolution is evicted, so that it is retried: resolutions
+     * throw rather than answer an empty result when the repositories cannot be reached.
+     */
+    private static <T> CompletableFuture<T> shared(ConcurrentMap<String, CompletableFuture<T>> cache, String key, 
+                                                   Supplier<T> resolution) {
+        CompletableFuture<T> future = cache.get(key);
+        if (future != null) {
+            return future;
+        }
+        CompletableFuture<T> created = new CompletableFuture<>();
+        future = cache.putIfAbsent(key, created);
+        if (future != null) {
+            return future;
+        }
+        resolvePool.execute(() -> {
+            try {
+                created.complete(resolution.get());
+            } catch (Throwable t) {
+                cache.remove(key, created);
+                created.completeExceptionally(t);
+            }
+        });
+        return created;
+    }
 
     public static ArtifactResolver getResolverFor(InternalKieContainer kieContainer, boolean allowDefaultPom) {
         InputStream pomStream = kieContainer.getPomAsStream();
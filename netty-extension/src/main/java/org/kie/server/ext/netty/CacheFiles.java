@@ -0,0 +1,83 @@
+package org.kie.server.ext.netty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The directories of the on-disk caches of the extension. They default to a directory under the data
+ * directory of the server, or the home directory of the server user, and are created readable by that user only.
+ * <p>
+ * A cache file is only read if the server user owns it, so that a file planted by another user is never trusted.
+ */
+public class CacheFiles {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(CacheFiles.class);
+    
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+    
+    private static final UserPrincipal SERVER_USER = lookupServerUser();
+    
+    private CacheFiles() {}
+    
+    /**
+     * @return the default directory of the cache of the given name
+     */
+    public static File defaultDir(String name) {
+        String dataDir = System.getProperty("jboss.server.data.dir");
+        File baseDir = dataDir != null ? new File(dataDir, "kie-netty") : new File(System.getProperty("user.home"), ".kie-netty");
+        return new File(baseDir, name);
+    }
+    
+    /**
+     * Creates the directory, and its missing parents, with owner only permissions where the file system
+     * supports them. An existing directory is only used if the server user owns it.
+     */
+    public static void createDir(File dir) throws IOException {
+        Path path = dir.toPath();
+        if (!Files.isDirectory(path)) {
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.createDirectories(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } else {
+                Files.createDirectories(path);
+            }
+        }
+        if (!isOwned(dir)) {
+            throw new IOException("Cache directory " + dir + " is not owned by the server user");
+        }
+    }
+    
+    /**
+     * @return true if the file, or the link if it is one, is owned by the server user
+     */
+    public static boolean isOwned(File file) {
+        if (SERVER_USER == null) {
+            return false;
+        }
+        try {
+            return SERVER_USER.equals(Files.getOwner(file.toPath(), LinkOption.NOFOLLOW_LINKS));
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+    
+    private static UserPrincipal lookupServerUser() {
+        try {
+            return FileSystems.getDefault().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.warn("Could not look up the server user, the on-disk caches are not used", e);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.kie.server.ext.netty;
+
+import org.kie.server.ext.netty.codec.Codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Records the request frames of a connection with a {@link CaptureWriter}, once decompressed and before 
+ * they are decoded. Control frames are not recorded.
+ */
+public class CaptureHandler extends ChannelInboundHandlerAdapter {
+    
+    private CaptureWriter writer;
+    
+    private Codec codec = new Codec();
+    
+    private int connection;
+
+    public CaptureHandler(CaptureWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        connection = writer.newConnection();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            ByteBuf frame = (ByteBuf) msg;
+            if (frame.isReadable() && codec.controlFrame(frame) == 0) {
+                try {
+                    writer.append(connection, frame, codec.containerIdIndex(frame));
+                } catch (IndexOutOfBoundsException e) {
+                    // truncated frame, which the decoder reports
+                }
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+}
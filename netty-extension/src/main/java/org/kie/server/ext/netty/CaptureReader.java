@@ -0,0 +1,102 @@
+package org.kie.server.ext.netty;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads the frames recorded by a {@link CaptureWriter}, file after file, in the order they were written.
+ * Files are mapped in memory one at a time, the frames read are views of the mapped file.
+ */
+public class CaptureReader {
+    
+    private final Iterator<Path> files;
+    
+    private Path file;
+    
+    private ByteBuffer buffer;
+    
+    private long captureStart;
+    
+    /**
+     * @param files capture files, or directories holding capture files
+     */
+    public CaptureReader(List<Path> files) throws IOException {
+        List<Path> captures = new ArrayList<>();
+        for (Path path : files) {
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "capture-*.cap")) {
+                    for (Path capture : stream) {
+                        captures.add(capture);
+                    }
+                }
+            } else {
+                captures.add(path);
+            }
+        }
+        // the start time and the sequence number in the names sort files in the order they were written
+        Collections.sort(captures);
+        this.files = captures.iterator();
+    }
+    
+    /**
+     * @return the next frame, or null once all files are read
+     */
+    public CapturedFrame next() throws IOException {
+        for (;;) {
+            if (buffer != null && buffer.remaining() >= CaptureWriter.RECORD_HEADER_LENGTH) {
+                int frameLength = buffer.getInt();
+                if (frameLength > 0) {
+                    long timestamp = buffer.getLong();
+                    int connection = buffer.getInt();
+                    byte[] containerId = new byte[buffer.getInt()];
+                    buffer.get(containerId);
+                    ByteBuffer frame = buffer.slice();
+                    frame.limit(frameLength);
+                    buffer.position(buffer.position() + frameLength);
+                    return new CapturedFrame(captureStart, timestamp, connection, new String(containerId, StandardCharsets.UTF_8), 
+                                             frame.asReadOnlyBuffer());
+                }
+            }
+            if (!files.hasNext()) {
+                buffer = null;
+                return null;
+            }
+            open(files.next());
+        }
+    }
+    
+    /**
+     * @return the file being read
+     */
+    public Path getFile() {
+        return file;
+    }
+    
+    private void open(Path next) throws IOException {
+        try (FileChannel channel = FileChannel.open(next, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.limit() < CaptureWriter.FILE_HEADER_LENGTH || mapped.getInt() != CaptureWriter.MAGIC) {
+                throw new IOException(next + " is not a capture file");
+            }
+            int version = mapped.getInt();
+            if (version != CaptureWriter.VERSION) {
+                throw new IOException(next + " has unsupported version " + version);
+            }
+            captureStart = mapped.getLong();
+            buffer = mapped;
+            file = next;
+        }
+    }
+
+}
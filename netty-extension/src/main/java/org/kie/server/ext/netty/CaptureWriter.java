@@ -0,0 +1,211 @@
+package org.kie.server.ext.netty;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Appends the request frames received by the server to memory mapped files, so that real traffic can be
+ * replayed later. Frames are copied to the mapped file by the event loop that received them: each frame
+ * reserves its place in the file with an atomic add, so event loops do not wait on each other.
+ * <p>
+ * When a file is full, the next one is created, and the oldest files are deleted to keep at most the configured
+ * number of files. Files are named <code>capture-&lt;start&gt;-&lt;sequence&gt;.cap</code>, <code>start</code> being
+ * the time the capture started in milliseconds since the epoch. A file starts with
+ * <code>[MAGIC][VERSION][start]</code>, followed by records <code>[frameLength][timestamp][connection][containerIdLength]
+ * [containerId][frame]</code>, where <code>timestamp</code> is the time the frame was received in nanoseconds since the
+ * start of the capture, and the container id is UTF-8 encoded. The rest of the file is zeroed, the length of a record
+ * is written last so that a record being written reads as the end of the file. See {@link CaptureReader}.
+ */
+public class CaptureWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureWriter.class);
+
+    /** "KCAP" */
+    public static final int MAGIC = 0x4B434150;
+
+    public static final int VERSION = 1;
+
+    static final int FILE_HEADER_LENGTH = 16;
+
+    static final int RECORD_HEADER_LENGTH = 20;
+
+    private final Path directory;
+
+    private final int fileSize;
+
+    private final int maxFiles;
+
+    private final long startMillis = System.currentTimeMillis();
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final LongAdder frames = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    // guarded by this
+    private final Deque<Path> files = new ArrayDeque<>();
+
+    // guarded by this
+    private int sequence;
+
+    // null once closed
+    private volatile Segment segment;
+
+    public CaptureWriter(Path directory, int fileSize, int maxFiles) throws IOException {
+        if (fileSize < 1024 || fileSize > 1 << 30) {
+            throw new IllegalArgumentException("Capture file size must be between 1KB and 1GB: " + fileSize);
+        }
+        this.directory = directory;
+        this.fileSize = fileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        Files.createDirectories(directory);
+        synchronized (this) {
+            segment = newSegment();
+        }
+        logger.info("Capturing requests to {}", directory);
+    }
+
+    /**
+     * @return the id of a new connection, which the frames it receives are recorded with
+     */
+    public int newConnection() {
+        return connections.incrementAndGet();
+    }
+
+    /**
+     * Appends a request frame, from any thread. Frames that do not fit in a file are dropped.
+     *
+     * @param containerIdIndex the index of the length prefixed container id in the frame
+     */
+    public void append(int connection, ByteBuf frame, int containerIdIndex) {
+        long timestamp = System.nanoTime() - startNanos;
+        int frameLength = frame.readableBytes();
+        int containerIdLength = Math.max(0, frame.getInt(containerIdIndex));
+        if (containerIdLength > frame.writerIndex() - containerIdIndex - 4 
+                || frameLength > fileSize - FILE_HEADER_LENGTH - RECORD_HEADER_LENGTH - containerIdLength) {
+            dropped.increment();
+            return;
+        }
+        int recordLength = RECORD_HEADER_LENGTH + containerIdLength + frameLength;
+        for (;;) {
+            Segment current = segment;
+            if (current == null) {
+                dropped.increment();
+                return;
+            }
+            int position = current.reserve(recordLength);
+            if (position >= 0) {
+                ByteBuffer target = current.buffer.duplicate();
+                target.position(position + 4);
+                target.putLong(timestamp).putInt(connection).putInt(containerIdLength);
+                target.limit(target.position() + containerIdLength);
+                frame.getBytes(containerIdIndex + 4, target);
+                target.limit(target.position() + frameLength);
+                frame.getBytes(frame.readerIndex(), target);
+                current.buffer.putInt(position, frameLength);
+                frames.increment();
+                return;
+            }
+            rotate(current);
+        }
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() {
+        Segment current = segment;
+        segment = null;
+        if (current != null) {
+            current.buffer.force();
+        }
+    }
+
+    private synchronized void rotate(Segment full) {
+        if (segment != full) {
+            // already rotated by another event loop, or closed
+            return;
+        }
+        try {
+            segment = newSegment();
+        } catch (IOException e) {
+            logger.error("Unable to create capture file in {}, capture stopped", directory, e);
+            segment = null;
+        }
+        while (files.size() > maxFiles) {
+            Path oldest = files.poll();
+            try {
+                Files.deleteIfExists(oldest);
+            } catch (IOException e) {
+                logger.warn("Unable to delete capture file {}", oldest, e);
+            }
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        Path file = directory.resolve(String.format("capture-%d-%05d.cap", startMillis, sequence++));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, startMillis);
+            files.add(file);
+            logger.debug("Capturing requests to {}", file);
+            return new Segment(buffer);
+        }
+    }
+
+    private static class Segment {
+
+        private final MappedByteBuffer buffer;
+
+        // a long, as it can go past the end of the file while event loops find out it is full
+        private final AtomicLong position = new AtomicLong(FILE_HEADER_LENGTH);
+
+        private Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return the position of the reserved space, or -1 if the file is full
+         */
+        private int reserve(int length) {
+            if (position.get() > buffer.capacity() - length) {
+                return -1;
+            }
+            long reserved = position.getAndAdd(length);
+            return reserved <= buffer.capacity() - length ? (int) reserved : -1;
+        }
+
+    }
+
+}
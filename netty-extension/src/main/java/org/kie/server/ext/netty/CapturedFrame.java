@@ -0,0 +1,60 @@
+package org.kie.server.ext.netty;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A request frame read from a capture, see {@link CaptureReader}.
+ */
+public class CapturedFrame {
+    
+    private final long captureStart;
+    
+    private final long timestamp;
+    
+    private final int connection;
+    
+    private final String containerId;
+    
+    private final ByteBuffer frame;
+
+    public CapturedFrame(long captureStart, long timestamp, int connection, String containerId, ByteBuffer frame) {
+        this.captureStart = captureStart;
+        this.timestamp = timestamp;
+        this.connection = connection;
+        this.containerId = containerId;
+        this.frame = frame;
+    }
+
+    /**
+     * @return the time the capture started, in milliseconds since the epoch
+     */
+    public long getCaptureStart() {
+        return captureStart;
+    }
+
+    /**
+     * @return the time the frame was received, in nanoseconds since the start of the capture
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the id of the connection that received the frame, unique within the capture
+     */
+    public int getConnection() {
+        return connection;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    /**
+     * @return the frame, without its length prefix, as a read only view of the capture file
+     */
+    public ByteBuffer getFrame() {
+        return frame.duplicate();
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.kie.server.ext.netty;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The name, access flags and direct supertypes of a class, read from the header of its class file 
+ * without loading the class.
+ */
+public class ClassHeader {
+    
+    private static final int MAGIC = 0xCAFEBABE;
+    
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+    
+    private final String className;
+    
+    private final int accessFlags;
+    
+    // superclass first, null for java.lang.Object, then the interfaces
+    private final String[] supertypes;
+
+    public ClassHeader(String className, int accessFlags, String[] supertypes) {
+        this.className = className;
+        this.accessFlags = accessFlags;
+        this.supertypes = supertypes;
+    }
+    
+    /**
+     * Reads the header of a class file, up to its interfaces. Fields, methods and attributes are not read.
+     */
+    public static ClassHeader read(InputStream classFile) throws IOException {
+        DataInputStream in = new DataInputStream(classFile);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.skipBytes(4); // minor and major version
+        int poolCount = in.readUnsignedShort();
+        String[] utf8 = new String[poolCount];
+        int[] classNameIndexes = new int[poolCount];
+        for (int i = 1; i < poolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNameIndexes[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++; // takes two entries
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        int accessFlags = in.readUnsignedShort();
+        String className = className(utf8, classNameIndexes, in.readUnsignedShort());
+        int superIndex = in.readUnsignedShort();
+        int interfaceCount = in.readUnsignedShort();
+        String[] supertypes = new String[interfaceCount + 1];
+        supertypes[0] = superIndex == 0 ? null : className(utf8, classNameIndexes, superIndex);
+        for (int i = 0; i < interfaceCount; i++) {
+            supertypes[i + 1] = className(utf8, classNameIndexes, in.readUnsignedShort());
+        }
+        return new ClassHeader(className, accessFlags, supertypes);
+    }
+    
+    private static String className(String[] utf8, int[] classNameIndexes, int classIndex) {
+        return utf8[classNameIndexes[classIndex]].replace('/', '.');
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getAccessFlags() {
+        return accessFlags;
+    }
+
+    public String[] getSupertypes() {
+        return supertypes;
+    }
+    
+    /**
+     * @return true if the class can be instantiated, i.e. it is neither an interface nor abstract
+     */
+    public boolean isConcrete() {
+        return (accessFlags & (ACC_INTERFACE | ACC_ABSTRACT)) == 0;
+    }
+    
+    /**
+     * @return true if the class only extends <code>java.lang.Object</code> and implements no interface,
+     * so it cannot be a subtype of anything else
+     */
+    public boolean isTrivial() {
+        return supertypes.length == 1 && (supertypes[0] == null || "java.lang.Object".equals(supertypes[0]));
+    }
+
+}
@@ -0,0 +1,498 @@
+package org.kie.server.ext.netty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.drools.core.command.IdentifiableResult;
+import org.drools.core.command.impl.GenericCommand;
+import org.drools.core.command.runtime.BatchExecutionCommandImpl;
+import org.drools.core.runtime.impl.ExecutionResultImpl;
+import org.kie.api.command.Command;
+import org.kie.api.runtime.CommandExecutor;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.api.runtime.KieSession;
+import org.kie.internal.command.Context;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+import org.kie.server.services.api.KieServerRegistry;
+import org.kie.server.services.drools.RulesExecutionService;
+import org.kie.server.services.impl.KieContainerInstanceImpl;
+
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Merges commands sent to the same container and session within a time window into a single batch,
+ * so that they share one session acquisition and one <code>rulesExecutionService.call</code>.
+ * <p>
+ * Each request runs in the merged batch as it would run alone: its commands, including its own
+ * <code>FireAllRulesCommand</code>, run in order after those of the earlier requests, and a failing command
+ * only fails its request. The out identifiers of the merged commands are prefixed with the index of their
+ * request and the results are split back by that prefix. Only requests whose commands all report their
+ * results under an out identifier that can be prefixed (<code>IdentifiableResult</code>: inserts, fire all
+ * rules, start process), set or not, are merged. Other requests, and requests with a deadline, are executed
+ * on their own, see {@link #submitAlone}, after the requests to the same session received before them. Requests
+ * to stateless sessions are executed one by one, as each needs a session of its own.
+ * <p>
+ * A window is flushed when it is older than the configured window or holds the configured number of
+ * commands. The merged batch runs on the session's executor lane if lanes are enabled, and otherwise on a
+ * single executor picked for the session: an executor of the group if there is one, or else the event loop
+ * of the channel that sent the first request to the session. The windows of a session are handed to its
+ * executor in the order they were flushed, so that its requests, one-way inserts among them, are applied in
+ * the order they were received. A window flushed to a full lane is retried until the lane has room, and the
+ * windows of the session flushed after it wait behind it.
+ */
+public class CommandCoalescer {
+    
+    private static final long RETRY_MICROS = 1000;
+    
+    private final long windowMicros;
+    
+    private final int maxCommands;
+    
+    private final KieServerRegistry registry;
+    
+    private final RulesExecutionService rulesExecutionService;
+    
+    private final ExecutorLanes lanes;
+    
+    private final EventExecutorGroup eventExecutorGroup;
+    
+    // only schedules flushes, batches never run on it
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "netty-coalescer");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+    
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    
+    public CommandCoalescer(long windowMicros, int maxCommands, KieServerRegistry registry, RulesExecutionService rulesExecutionService,
+                            ExecutorLanes lanes, EventExecutorGroup eventExecutorGroup) {
+        this.windowMicros = windowMicros;
+        this.maxCommands = maxCommands;
+        this.registry = registry;
+        this.rulesExecutionService = rulesExecutionService;
+        this.lanes = lanes;
+        this.eventExecutorGroup = eventExecutorGroup;
+    }
+    
+    public boolean accepts(ContainerCommand cc) {
+        if (cc.hasDeadline()) {
+            // halting the merged batch would fail the other requests
+            return false;
+        }
+        for (GenericCommand<?> command : commands(cc.getCommand())) {
+            // other commands may report results under identifiers that cannot be told apart between requests
+            if (!(command instanceof IdentifiableResult)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @param executor runs the merged batches of the session when there are neither lanes nor an executor group,
+     * if it is the first request to the session, the event loop of the request's channel
+     */
+    public CompletableFuture<ContainerExecutionResults> submit(ContainerCommand cc, Executor executor) {
+        String lookup = lookup(cc.getCommand());
+        String key = key(cc.getContainerId(), lookup);
+        Request request = new Request(cc, null);
+        requests.increment();
+        for (;;) {
+            Window window = windows.computeIfAbsent(key, k -> new Window(k, cc.getContainerId(), lookup, executor));
+            boolean flush;
+            synchronized (window) {
+                if (window.closed) {
+                    continue;
+                }
+                window.requests.add(request);
+                window.commands += request.commands.size();
+                if (window.requests.size() == 1) {
+                    scheduler.schedule(() -> flush(window), windowMicros, TimeUnit.MICROSECONDS);
+                }
+                flush = window.commands >= maxCommands;
+            }
+            if (flush) {
+                flush(window);
+            }
+            return request.future;
+        }
+    }
+    
+    /**
+     * Executes a request that is not merged on the executor of its session, once the requests to the session
+     * received before it have been executed: the open window of the session is flushed first, and the request
+     * is queued behind it as a window of its own.
+     * 
+     * @param executor as for {@link #submit}
+     * @param execution executes the request, on the executor of its session
+     */
+    public CompletableFuture<ContainerExecutionResults> submitAlone(ContainerCommand cc, Executor executor, 
+                                                                    Function<ContainerCommand, ContainerExecutionResults> execution) {
+        String lookup = lookup(cc.getCommand());
+        String key = key(cc.getContainerId(), lookup);
+        Window open = windows.get(key);
+        if (open != null) {
+            flush(open);
+        }
+        Request request = new Request(cc, execution);
+        Window window = new Window(key, cc.getContainerId(), lookup, executor);
+        window.requests.add(request);
+        window.closed = true;
+        Session session = enqueue(window);
+        if (session != null) {
+            dispatch(session);
+        }
+        return request.future;
+    }
+    
+    public long getRequests() {
+        return requests.sum();
+    }
+    
+    public long getBatches() {
+        return batches.sum();
+    }
+    
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+    
+    /**
+     * Forgets the executors picked for the sessions of a container. Windows already flushed still run.
+     */
+    public void disposeContainer(String containerId) {
+        sessions.values().removeIf(session -> session.containerId.equals(containerId));
+    }
+    
+    private void flush(Window window) {
+        Session session;
+        synchronized (window) {
+            if (window.closed) {
+                return;
+            }
+            window.closed = true;
+            // queued while closing, so that a window found closed is already queued
+            session = enqueue(window);
+        }
+        // only removed once queued, so that the next window of the session is queued behind this one
+        windows.remove(window.key, window);
+        if (session != null) {
+            dispatch(session);
+        }
+    }
+    
+    /**
+     * @return the session of the window if the window is the only one of the session waiting, in which case it is up 
+     * to the caller to dispatch it, null otherwise
+     */
+    private Session enqueue(Window window) {
+        Session session = sessions.computeIfAbsent(window.key, k -> new Session(window.containerId, 
+                eventExecutorGroup != null ? eventExecutorGroup.next() : window.executor));
+        synchronized (session) {
+            session.flushed.add(window);
+            return session.flushed.size() == 1 ? session : null;
+        }
+    }
+    
+    /**
+     * Hands the flushed windows of a session to its executor, in order, until none is left or its lane is full,
+     * in which case the head window is retried later.
+     */
+    private void dispatch(Session session) {
+        Window window;
+        synchronized (session) {
+            window = session.flushed.peek();
+        }
+        while (window != null) {
+            Window dispatched = window;
+            ExecutorLanes.Lane lane = lanes != null ? lanes.lane(window.containerId, window.lookup) : null;
+            try {
+                Executor executor = lane != null ? lane::execute : session.executor;
+                executor.execute(() -> execute(dispatched));
+            } catch (RejectedExecutionException e) {
+                if (lane != null && !scheduler.isShutdown()) {
+                    // the lane is full, its queue drains as its batches complete
+                    scheduler.schedule(() -> dispatch(session), RETRY_MICROS, TimeUnit.MICROSECONDS);
+                    return;
+                }
+                fail(window.requests, e);
+            } catch (RuntimeException e) {
+                fail(window.requests, e);
+            }
+            synchronized (session) {
+                session.flushed.poll();
+                window = session.flushed.peek();
+            }
+        }
+    }
+    
+    private void execute(Window window) {
+        List<Request> merged = window.requests;
+        if (merged.get(0).execution != null) {
+            Request request = merged.get(0);
+            try {
+                request.future.complete(request.execution.apply(request.cc));
+            } catch (Throwable t) {
+                request.future.completeExceptionally(t);
+            }
+            return;
+        }
+        batches.increment();
+        try {
+            KieContainerInstanceImpl kci = registry.getContainer(window.containerId);
+            if (kci == null) {
+                fail(merged, new IllegalStateException("Container " + window.containerId + " not found"));
+                return;
+            }
+            List<RequestTimer> timers = timers(merged);
+            if (merged.size() > 1 && isStateful(kci, window.lookup)) {
+                executeMerged(kci, window.lookup, merged);
+            } else {
+                for (Request request : merged) {
+                    executeAlone(kci, request);
+                }
+            }
+            for (RequestTimer timer : timers) {
+                timer.executed();
+            }
+        } catch (Throwable t) {
+            fail(merged, t);
+        }
+    }
+    
+    private void executeMerged(KieContainerInstanceImpl kci, String lookup, List<Request> merged) {
+        List<GenericCommand<?>> commands = new ArrayList<>(merged.size());
+        for (int i = 0; i < merged.size(); i++) {
+            Request request = merged.get(i);
+            for (GenericCommand<?> command : request.commands) {
+                IdentifiableResult identifiable = (IdentifiableResult) command;
+                if (identifiable.getOutIdentifier() != null) {
+                    identifiable.setOutIdentifier(i + ":" + identifiable.getOutIdentifier());
+                }
+            }
+            commands.add(new RequestCommand(request));
+        }
+        BatchExecutionCommandImpl batch = new BatchExecutionCommandImpl(commands);
+        batch.setLookup(lookup);
+        ExecutionResults results = rulesExecutionService.call(kci, batch);
+        split(merged, results);
+    }
+    
+    private void executeAlone(KieContainerInstanceImpl kci, Request request) {
+        try {
+            Command<?> command = request.cc.getCommand();
+            BatchExecutionCommandImpl batch = command instanceof BatchExecutionCommandImpl ? (BatchExecutionCommandImpl) command
+                    : new BatchExecutionCommandImpl(request.commands);
+            request.future.complete(new ContainerExecutionResults(request.cc, rulesExecutionService.call(kci, batch)));
+        } catch (Throwable t) {
+            request.future.completeExceptionally(t);
+        }
+    }
+    
+    private boolean isStateful(KieContainerInstanceImpl kci, String lookup) {
+        CommandExecutor executor = lookup == null ? kci.getKieContainer().getKieSession() 
+                : registry.getKieSessionLookupManager().lookup(lookup, kci, registry);
+        return executor instanceof KieSession;
+    }
+    
+    private void split(List<Request> merged, ExecutionResults results) {
+        List<HashMap<String, Object>> values = new ArrayList<>(merged.size());
+        List<HashMap<String, Object>> factHandles = new ArrayList<>(merged.size());
+        for (int i = 0; i < merged.size(); i++) {
+            values.add(new HashMap<>());
+            factHandles.add(new HashMap<>());
+        }
+        for (String identifier : results.getIdentifiers()) {
+            int index = requestIndex(identifier, merged.size());
+            if (index < 0) {
+                // not prefixed by the coalescer, it belongs to no request in particular
+                continue;
+            }
+            String outIdentifier = identifier.substring(identifier.indexOf(':') + 1);
+            values.get(index).put(outIdentifier, results.getValue(identifier));
+            Object factHandle = results.getFactHandle(identifier);
+            if (factHandle != null) {
+                factHandles.get(index).put(outIdentifier, factHandle);
+            }
+        }
+        for (int i = 0; i < merged.size(); i++) {
+            Request request = merged.get(i);
+            if (request.failure != null) {
+                request.future.completeExceptionally(request.failure);
+                continue;
+            }
+            ExecutionResultImpl er = new ExecutionResultImpl();
+            er.setResults(values.get(i));
+            er.setFactHandles(factHandles.get(i));
+            request.future.complete(new ContainerExecutionResults(request.cc, er));
+        }
+    }
+    
+    /**
+     * @return the index of the request the identifier was prefixed with, or -1 if it has no such prefix
+     */
+    private static int requestIndex(String identifier, int requests) {
+        int separator = identifier.indexOf(':');
+        if (separator <= 0 || separator > 9) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < separator; i++) {
+            char c = identifier.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index < requests ? index : -1;
+    }
+    
+    private static void fail(List<Request> requests, Throwable t) {
+        for (Request request : requests) {
+            request.future.completeExceptionally(t);
+        }
+    }
+    
+    /**
+     * @return the timers of the merged requests, which leave their queue as the merged batch starts
+     */
+    private static List<RequestTimer> timers(List<Request> merged) {
+        List<RequestTimer> timers = new ArrayList<>(merged.size());
+        for (Request request : merged) {
+            RequestTimer timer = RequestTimer.of(request.cc);
+            if (timer != null) {
+                timer.started();
+                timers.add(timer);
+            }
+        }
+        return timers;
+    }
+    
+    private static String key(String containerId, String lookup) {
+        return lookup == null ? containerId : containerId + "/" + lookup;
+    }
+    
+    private static String lookup(Command<?> command) {
+        return command instanceof BatchExecutionCommandImpl ? ((BatchExecutionCommandImpl) command).getLookup() : null;
+    }
+    
+    private static List<GenericCommand<?>> commands(Command<?> command) {
+        if (command instanceof BatchExecutionCommandImpl) {
+            return ((BatchExecutionCommandImpl) command).getCommands();
+        }
+        return Collections.<GenericCommand<?>>singletonList((GenericCommand<?>) command);
+    }
+    
+    /**
+     * The commands of one request within the merged batch. A failure stops the commands of the request, 
+     * as it would stop its own batch, and is kept to answer the request with.
+     */
+    private static class RequestCommand implements GenericCommand<Void> {
+        
+        private final Request request;
+        
+        private RequestCommand(Request request) {
+            this.request = request;
+        }
+        
+        @Override
+        public Void execute(Context context) {
+            try {
+                for (GenericCommand<?> command : request.commands) {
+                    command.execute(context);
+                }
+            } catch (RuntimeException e) {
+                request.failure = e;
+            }
+            return null;
+        }
+        
+    }
+    
+    private static class Request {
+        
+        private final ContainerCommand cc;
+        
+        private final List<GenericCommand<?>> commands;
+        
+        // executes the request on its own, null if it is merged
+        private final Function<ContainerCommand, ContainerExecutionResults> execution;
+        
+        private final CompletableFuture<ContainerExecutionResults> future = new CompletableFuture<>();
+        
+        private Throwable failure;
+        
+        private Request(ContainerCommand cc, Function<ContainerCommand, ContainerExecutionResults> execution) {
+            this.cc = cc;
+            this.execution = execution;
+            this.commands = execution == null ? commands(cc.getCommand()) : null;
+        }
+        
+    }
+    
+    /**
+     * The executor picked for a session, and its windows waiting to be handed to it.
+     */
+    private static class Session {
+        
+        private final String containerId;
+        
+        private final Executor executor;
+        
+        // guarded by the session, its head is being dispatched
+        private final Deque<Window> flushed = new ArrayDeque<>();
+        
+        private Session(String containerId, Executor executor) {
+            this.containerId = containerId;
+            this.executor = executor;
+        }
+        
+    }
+    
+    private static class Window {
+        
+        private final String key;
+        
+        private final String containerId;
+        
+        private final String lookup;
+        
+        private final Executor executor;
+        
+        private final List<Request> requests = new ArrayList<>();
+        
+        private int commands;
+        
+        private boolean closed;
+        
+        private Window(String key, String containerId, String lookup, Executor executor) {
+            this.key = key;
+            this.containerId = containerId;
+            this.lookup = lookup;
+            this.executor = executor;
+        }
+        
+    }
+
+}
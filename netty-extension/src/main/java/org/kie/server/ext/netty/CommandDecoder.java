@@ -1,34 +1,226 @@
 package org.kie.server.ext.netty;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.drools.core.command.impl.GenericCommand;
+import org.drools.core.command.runtime.BatchExecutionCommandImpl;
 import org.kie.api.command.Command;
 import org.kie.server.api.marshalling.Marshaller;
 import org.kie.server.ext.netty.codec.Codec;
 import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
 
+/**
+ * Decodes request frames into container commands, assembling batches received in chunks. A channel may
+ * have a limited number of chunked batches open at a time, holding a limited number of bytes of chunks: a 
+ * chunk past these limits is answered with <code>STATUS_REJECTED</code> and the channel is closed, as it 
+ * is for a frame longer than the maximum frame length.
+ * <p>
+ * The commands of a request to a container without a marshaller, which includes unknown containers, cannot be
+ * decoded: the frame is skipped, and a correlated request is answered with an error, even when it is one-way. 
+ * As an uncorrelated request cannot be answered out of order, its channel is closed.
+ */
 public class CommandDecoder extends MessageToMessageDecoder<ByteBuf> {
     
-    private Map<String, Marshaller> marshallers;
+    private static final Logger LOG = LoggerFactory.getLogger(CommandDecoder.class);
+    
+    private MarshallerRegistry marshallerRegistry;
+    
+    private AllocationMetrics allocationMetrics;
+    
+    private PipelineMetrics pipelineMetrics;
+    
+    private int maxStreamedBatches;
+    
+    private long maxStreamedBytes;
     
     private Codec codec = new Codec();
     
-    public CommandDecoder(Map<String, Marshaller> marshallers) {
-        this.marshallers = marshallers;
+    // batches being received in chunks, by request id
+    private Map<Long, BatchExecutionCommandImpl> streamedBatches = new HashMap<>();
+    
+    // marshallers of the batches being received, all chunks of a batch are decoded with the same one
+    private Map<Long, Marshaller> streamedMarshallers = new HashMap<>();
+    
+    // bytes of the chunks of the batches being received, by request id
+    private Map<Long, Long> streamedSizes = new HashMap<>();
+    
+    private long streamedBytes;
+    
+    public CommandDecoder(MarshallerRegistry marshallerRegistry, AllocationMetrics allocationMetrics, PipelineMetrics pipelineMetrics,
+                          int maxStreamedBatches, long maxStreamedBytes) {
+        this.marshallerRegistry = marshallerRegistry;
+        this.allocationMetrics = allocationMetrics;
+        this.pipelineMetrics = pipelineMetrics;
+        this.maxStreamedBatches = maxStreamedBatches;
+        this.maxStreamedBytes = maxStreamedBytes;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        clearStreamedBatches();
+        super.channelInactive(ctx);
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
         
+        byte controlFrame = codec.controlFrame(msg);
+        if (controlFrame == Codec.FRAME_HANDSHAKE) {
+            out.add(codec.decodeHandshake(msg));
+            return;
+        } else if (controlFrame == Codec.FRAME_SCHEMA) {
+            out.add(codec.decodeSchemaRequest(msg));
+            return;
+        } else if (controlFrame == Codec.FRAME_SUBSCRIBE) {
+            out.add(codec.decodeSubscribeRequest(msg));
+            return;
+        }
+        long allocated = allocationMetrics.allocatedBytes();
+        long start = pipelineMetrics.isEnabled() ? System.nanoTime() : 0;
+        int bytes = msg.readableBytes();
+        long requestId = ContainerCommand.NO_REQUEST_ID;
+        byte flags = 0;
+        int timeout = 0;
+        if (codec.isCorrelated(msg)) {
+            requestId = codec.decodeRequestId(msg);
+            flags = codec.decodeFlags(msg);
+            if ((flags & ContainerCommand.FLAG_DEADLINE) != 0) {
+                timeout = codec.decodeTimeout(msg);
+            }
+        }
+        codec.setCompact((flags & ContainerCommand.FLAG_COMPACT) != 0);
         String containerId = codec.decodeString(msg);
-        codec.setMarshaller(marshallers.get(containerId));
-        Command<?> command = codec.decodeCommand(msg);
-        out.add(new ContainerCommand(containerId, command));        
+        if (codec.isBatchChunk(msg)) {
+            if (!ctx.channel().isOpen()) {
+                // closed for exceeding the limits, the chunks already read are dropped
+                return;
+            }
+            BatchExecutionCommandImpl batch = streamedBatches.get(requestId);
+            Marshaller marshaller = streamedMarshallers.get(requestId);
+            if ((batch == null && streamedBatches.size() >= maxStreamedBatches) || streamedBytes + bytes > maxStreamedBytes) {
+                rejectStreamedBatch(ctx, requestId, flags, containerId);
+                return;
+            }
+            if (batch == null) {
+                marshaller = marshallerRegistry.getMarshaller(containerId);
+                if (marshaller == null) {
+                    // answered once, on the last chunk of the batch
+                    if (msg.getBoolean(msg.readerIndex() + 1)) {
+                        unknownContainer(ctx, requestId, flags, containerId);
+                    }
+                    return;
+                }
+                batch = new BatchExecutionCommandImpl(new ArrayList<GenericCommand<?>>());
+                streamedBatches.put(requestId, batch);
+                streamedMarshallers.put(requestId, marshaller);
+            }
+            streamedBytes += bytes;
+            streamedSizes.merge(requestId, (long) bytes, Long::sum);
+            codec.setMarshaller(marshaller);
+            boolean complete = codec.decodeBatchChunk(msg, batch);
+            long decoded = recordDecode(containerId, batch, start, bytes);
+            if (complete) {
+                streamedBatches.remove(requestId);
+                streamedMarshallers.remove(requestId);
+                streamedBytes -= streamedSizes.remove(requestId);
+                ContainerCommand cc = new ContainerCommand(requestId, flags, containerId, batch);
+                cc.setMarshaller(marshaller);
+                setTimeout(cc, timeout);
+                startTimer(cc, decoded);
+                out.add(cc);
+            }
+        } else {
+            Marshaller marshaller = marshallerRegistry.getMarshaller(containerId);
+            if (marshaller == null) {
+                unknownContainer(ctx, requestId, flags, containerId);
+                return;
+            }
+            codec.setMarshaller(marshaller);
+            ContainerCommand cc = new ContainerCommand(requestId, flags, containerId, codec.decodeCommand(msg));
+            cc.setMarshaller(marshaller);
+            setTimeout(cc, timeout);
+            startTimer(cc, recordDecode(containerId, cc.getCommand(), start, bytes));
+            out.add(cc);
+        }
+        allocationMetrics.recordDecode(allocated);
+    }
+    
+    /**
+     * Answers a chunk past the limits of the channel and closes the channel, the batches being received
+     * are dropped.
+     */
+    private void rejectStreamedBatch(ChannelHandlerContext ctx, long requestId, byte flags, String containerId) {
+        LOG.warn("Closing channel {}, {} chunked batches open holding {} bytes", ctx.channel(), streamedBatches.size(), streamedBytes);
+        clearStreamedBatches();
+        if (requestId == ContainerCommand.NO_REQUEST_ID) {
+            ctx.close();
+            return;
+        }
+        ContainerExecutionResults rejected = new ContainerExecutionResults(requestId, flags, containerId, ContainerExecutionResults.STATUS_REJECTED, 
+                                                                           "Too many chunked batches or chunked batch too large");
+        ctx.writeAndFlush(rejected).addListener(ChannelFutureListener.CLOSE);
+    }
+    
+    /**
+     * Answers a request whose container has no marshaller, its frame being skipped.
+     */
+    private void unknownContainer(ChannelHandlerContext ctx, long requestId, byte flags, String containerId) {
+        if (requestId == ContainerCommand.NO_REQUEST_ID) {
+            LOG.warn("Closing channel {}, container {} not found", ctx.channel(), containerId);
+            ctx.close();
+            return;
+        }
+        ctx.writeAndFlush(new ContainerExecutionResults(requestId, flags, containerId, ContainerExecutionResults.STATUS_ERROR, 
+                                                        "Container " + containerId + " not found"));
+    }
+    
+    private void clearStreamedBatches() {
+        streamedBatches.clear();
+        streamedMarshallers.clear();
+        streamedSizes.clear();
+        streamedBytes = 0;
+    }
+    
+    /**
+     * Records the time spent decoding a frame.
+     * 
+     * @return the end of decoding, or 0 if not recorded
+     */
+    private long recordDecode(String containerId, Command<?> command, long start, int bytes) {
+        if (start == 0) {
+            return 0;
+        }
+        return pipelineMetrics.getRequestMetrics(containerId, command).decoded(start, bytes);
+    }
+    
+    private void startTimer(ContainerCommand cc, long decoded) {
+        if (decoded != 0) {
+            RequestMetrics metrics = pipelineMetrics.getRequestMetrics(cc.getContainerId(), cc.getCommand());
+            metrics.received();
+            cc.setAttachment(new RequestTimer(metrics, decoded));
+        }
+    }
+    
+    /**
+     * Sets the deadline of a command from the time it had left when sent. Each chunk of a streamed batch
+     * carries the time left when it was sent, so the batch gets the deadline of its last chunk.
+     */
+    private void setTimeout(ContainerCommand cc, int timeout) {
+        if (cc.hasDeadline()) {
+            cc.setTimeout(timeout, TimeUnit.MILLISECONDS);
+        }
     }
 
 }
@@ -1,11 +1,20 @@
 package org.kie.server.ext.netty;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.drools.core.command.impl.GenericCommand;
 import org.drools.core.command.runtime.BatchExecutionCommandImpl;
 import org.kie.api.command.Command;
+import org.kie.api.runtime.CommandExecutor;
 import org.kie.api.runtime.ExecutionResults;
+import org.kie.api.runtime.KieSession;
 import org.kie.server.ext.netty.codec.ContainerCommand;
 import org.kie.server.ext.netty.codec.ContainerExecutionResults;
 import org.kie.server.services.api.KieServerRegistry;
@@ -16,37 +25,206 @@ import org.slf4j.LoggerFactory;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
 
+/**
+ * Executes container commands. 
+ * <p>
+ * With a coalescer, commands it accepts are merged with commands of other requests for the same session
+ * and answered when the merged batch completes. Other commands run on their own through the coalescer too,
+ * behind the commands to the same session received before them, which it may still be holding, and wait for
+ * room in a full lane as merged batches do.
+ * <p>
+ * Without a coalescer, with executor lanes, every command runs on the lane of the session it targets, or on the channel's event
+ * loop if the session has no lane. A correlated command sent to a full lane is answered with <code>STATUS_REJECTED</code>.
+ * Uncorrelated responses have no status, so an uncorrelated command waits for room in its lane with the channel
+ * not reading. With an executor
+ * group, uncorrelated commands run one after the other on an executor picked for the channel, while 
+ * correlated commands are spread over the whole group. Otherwise commands run on the channel's event loop.
+ * <p>
+ * Correlated commands are answered as soon as they complete. Responses to uncorrelated commands that complete 
+ * asynchronously are held back until the responses to all earlier uncorrelated commands of the channel have
+ * been written.
+ * <p>
+ * One-way commands are only answered when they fail. With an executor group they run on the executor of the
+ * channel, so that they are applied in the order they were sent, as they are with lanes. With a coalescer
+ * they are applied in the order of their session, see {@link CommandCoalescer}.
+ * <p>
+ * A command with a deadline is answered with <code>STATUS_TIMEOUT</code> without being executed if its deadline
+ * has passed when its turn comes. If it runs on the lane of its session and is still running at its deadline, its
+ * session is halted, which stops <code>fireAllRules</code> at the end of the rule being fired, and it is answered 
+ * with <code>STATUS_TIMEOUT</code>. Elsewhere other commands may be running on the same session, which a halt 
+ * would cut short, so the command runs to completion and is answered with <code>STATUS_TIMEOUT</code> if its
+ * deadline passed meanwhile.
+ * <p>
+ * The channel stops reading while it is not writable, and while it or the container it sends to has too many
+ * commands executing asynchronously, see {@link AdmissionControl}.
+ */
 public class ContainerCommandHandler extends ChannelInboundHandlerAdapter {
     
     private static Logger LOG = LoggerFactory.getLogger(ContainerCommandHandler.class);
     
+    private static final long HALT_INTERVAL_MILLIS = 10;
+    
+    private static final long LANE_RETRY_MILLIS = 1;
+    
     private KieServerRegistry registry;
     
+    private MarshallerRegistry marshallerRegistry;
+    
     private RulesExecutionService rulesExecutionService; 
     
-    public ContainerCommandHandler(KieServerRegistry registry, RulesExecutionService rulesExecutionService) {
+    private EventExecutorGroup eventExecutorGroup;
+    
+    private ExecutorLanes lanes;
+    
+    private CommandCoalescer coalescer;
+    
+    private AdmissionControl admission;
+    
+    private EventExecutor channelExecutor;
+    
+    private final AtomicInteger inFlight = new AtomicInteger();
+    
+    // only accessed from the channel's event loop
+    private boolean waitingForContainer;
+    
+    // only accessed from the channel's event loop
+    private final Deque<PendingResponse> pendingResponses = new ArrayDeque<>();
+    
+    // uncorrelated commands waiting for room in their lane, only accessed from the channel's event loop
+    private final Deque<LaneTask> waitingForLane = new ArrayDeque<>();
+    
+    public ContainerCommandHandler(KieServerRegistry registry, MarshallerRegistry marshallerRegistry, RulesExecutionService rulesExecutionService, 
+                                   EventExecutorGroup eventExecutorGroup, ExecutorLanes lanes, CommandCoalescer coalescer, 
+                                   AdmissionControl admission) {
         super();
         this.registry = registry;
+        this.marshallerRegistry = marshallerRegistry;
         this.rulesExecutionService = rulesExecutionService;
+        this.eventExecutorGroup = eventExecutorGroup;
+        this.lanes = lanes;
+        this.coalescer = coalescer;
+        this.admission = admission;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        if (eventExecutorGroup != null) {
+            channelExecutor = eventExecutorGroup.next();
+        }
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         LOG.info("Channel inactive");
+        for (LaneTask waiting : waitingForLane) {
+            release(ctx, waiting.permits);
+        }
+        waitingForLane.clear();
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         ContainerCommand cc = (ContainerCommand) msg;
         KieContainerInstanceImpl kci = registry.getContainer(cc.getContainerId());
-        Command<?> command = cc.getCommand();
-        if (!(command instanceof BatchExecutionCommandImpl)) {
-            command = new BatchExecutionCommandImpl(Arrays.asList(new GenericCommand<?>[]{(GenericCommand<?>) command}));
+        if (kci != null) {
+            // the container may have been updated to another release, in which case its marshaller is rebuilt
+            marshallerRegistry.checkReleaseId(cc.getContainerId(), kci);
+        }
+        boolean async = coalescer != null || lanes != null || eventExecutorGroup != null;
+        AdmissionControl.Permits permits = async ? admission.acquire(cc.getContainerId()) : null;
+        if (async && !admit(ctx, cc, permits)) {
+            return;
+        }
+        if (coalescer != null) {
+            PendingResponse pending = cc.isCorrelated() ? null : newPendingResponse();
+            CompletableFuture<ContainerExecutionResults> future = coalescer.accepts(cc) ? coalescer.submit(cc, ctx.executor()) 
+                    : coalescer.submitAlone(cc, ctx.executor(), this::execute);
+            future.whenComplete((results, failure) -> respond(ctx, cc, permits, pending, results, failure));
+        } else if (lanes != null) {
+            String lookup = cc.getCommand() instanceof BatchExecutionCommandImpl ? ((BatchExecutionCommandImpl) cc.getCommand()).getLookup() : null;
+            ExecutorLanes.Lane lane = lanes.lane(cc.getContainerId(), lookup);
+            if (lane != null) {
+                executeOnLane(ctx, cc, permits, lane);
+            } else {
+                // unknown container or too many lanes, keeps the order with respect to responses of commands run on lanes
+                executeAsync(ctx, cc, permits, Runnable::run);
+            }
+        } else if (eventExecutorGroup != null) {
+            executeAsync(ctx, cc, permits, cc.isCorrelated() && !cc.isOneWay() ? eventExecutorGroup.next() : channelExecutor);
+        } else {
+            ContainerExecutionResults results = execute(cc);
+            if (!cc.isOneWay() || !results.isSuccess()) {
+                ctx.write(results);
+            }
+        }
+    }
+
+    /**
+     * Counts the command in flight and stops reading when a limit is reached.
+     * 
+     * @param permits the permits the command was counted against in its container
+     * @return false if the command was rejected
+     */
+    private boolean admit(ChannelHandlerContext ctx, ContainerCommand cc, AdmissionControl.Permits permits) {
+        if (admission.isReject() && cc.isCorrelated()) {
+            if (admission.isChannelFull(inFlight.get()) || admission.isOverLimit(permits)) {
+                admission.release(permits);
+                admission.rejected();
+                ctx.write(new ContainerExecutionResults(cc, ContainerExecutionResults.STATUS_REJECTED, "Too many requests in flight"));
+                return false;
+            }
+            inFlight.incrementAndGet();
+            return true;
+        }
+        boolean containerAvailable = !admission.isOverLimit(permits);
+        if (admission.isChannelFull(inFlight.incrementAndGet()) || !containerAvailable) {
+            pause(ctx);
+        }
+        if (!containerAvailable && !waitingForContainer) {
+            waitingForContainer = true;
+            admission.whenAvailable(permits, () -> ctx.executor().execute(() -> {
+                waitingForContainer = false;
+                updateAutoRead(ctx);
+            }));
+        }
+        return true;
+    }
+    
+    /**
+     * Called from any thread when a command counted in flight has been answered.
+     */
+    private void release(ChannelHandlerContext ctx, AdmissionControl.Permits permits) {
+        inFlight.decrementAndGet();
+        admission.release(permits);
+        if (!ctx.channel().config().isAutoRead()) {
+            ctx.executor().execute(() -> updateAutoRead(ctx));
+        }
+    }
+    
+    private void pause(ChannelHandlerContext ctx) {
+        if (ctx.channel().config().isAutoRead()) {
+            ctx.channel().config().setAutoRead(false);
+            admission.paused();
+        }
+    }
+    
+    private void updateAutoRead(ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable() && !waitingForContainer && waitingForLane.isEmpty() && !admission.isChannelFull(inFlight.get())) {
+            ctx.channel().config().setAutoRead(true);
+        } else {
+            pause(ctx);
         }
-        ExecutionResults results = rulesExecutionService.call(kci, (BatchExecutionCommandImpl) command);
-        ContainerExecutionResults cer = new ContainerExecutionResults(cc.getContainerId(), results);
-        ctx.write(cer);        
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        updateAutoRead(ctx);
+        ctx.fireChannelWritabilityChanged();
     }
 
     @Override
@@ -56,10 +234,256 @@ public class ContainerCommandHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-        cause.printStackTrace();
+        LOG.warn("Closing channel {}", ctx.channel(), cause);
         ctx.close();
     }
     
+    private void executeAsync(ChannelHandlerContext ctx, ContainerCommand cc, AdmissionControl.Permits permits, Executor executor) {
+        PendingResponse pending = cc.isCorrelated() ? null : newPendingResponse();
+        try {
+            executor.execute(task(ctx, cc, permits, pending));
+        } catch (RuntimeException e) {
+            respond(ctx, cc, permits, pending, null, e);
+        }
+    }
+    
+    private void executeOnLane(ChannelHandlerContext ctx, ContainerCommand cc, AdmissionControl.Permits permits, ExecutorLanes.Lane lane) {
+        PendingResponse pending = cc.isCorrelated() ? null : newPendingResponse();
+        LaneTask laneTask = new LaneTask(cc, permits, pending, lane, task(ctx, cc, permits, pending));
+        if (pending != null && !waitingForLane.isEmpty()) {
+            // behind the uncorrelated commands already waiting, to keep their order
+            waitingForLane.add(laneTask);
+            return;
+        }
+        try {
+            lane.execute(laneTask.task);
+        } catch (RejectedExecutionException e) {
+            if (pending == null) {
+                respond(ctx, cc, permits, null, new ContainerExecutionResults(cc, ContainerExecutionResults.STATUS_REJECTED, "Lane " + lane.getKey() + " is full"), null);
+            } else if (lane.isShutdown()) {
+                respond(ctx, cc, permits, pending, null, e);
+            } else {
+                waitingForLane.add(laneTask);
+                pause(ctx);
+                ctx.executor().schedule(() -> retryLanes(ctx), LANE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    /**
+     * Submits the uncorrelated commands waiting for room in their lane, in order, and resumes reading once they all are.
+     */
+    private void retryLanes(ChannelHandlerContext ctx) {
+        while (!waitingForLane.isEmpty()) {
+            LaneTask head = waitingForLane.peek();
+            try {
+                head.lane.execute(head.task);
+            } catch (RejectedExecutionException e) {
+                if (!head.lane.isShutdown()) {
+                    if (ctx.channel().isActive()) {
+                        ctx.executor().schedule(() -> retryLanes(ctx), LANE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                    return;
+                }
+                respond(ctx, head.cc, head.permits, head.pending, null, e);
+            }
+            waitingForLane.poll();
+        }
+        updateAutoRead(ctx);
+    }
+    
+    private Runnable task(ChannelHandlerContext ctx, ContainerCommand cc, AdmissionControl.Permits permits, PendingResponse pending) {
+        return () -> {
+            ContainerExecutionResults results = null;
+            Throwable failure = null;
+            try {
+                results = execute(cc);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            respond(ctx, cc, permits, pending, results, failure);
+        };
+    }
+    
+    private PendingResponse newPendingResponse() {
+        PendingResponse pending = new PendingResponse();
+        pendingResponses.add(pending);
+        return pending;
+    }
+    
+    /**
+     * Sends the outcome of an asynchronously executed command. Correlated responses are written right away,
+     * uncorrelated ones once all earlier uncorrelated responses have been written. Called from any thread.
+     */
+    private void respond(ChannelHandlerContext ctx, ContainerCommand cc, AdmissionControl.Permits permits, PendingResponse pending, 
+                         ContainerExecutionResults results, Throwable failure) {
+        if (pending == null) {
+            if (failure != null) {
+                ctx.writeAndFlush(error(cc, failure));
+            } else if (!cc.isOneWay() || !results.isSuccess()) {
+                ctx.writeAndFlush(results);
+            }
+        } else {
+            pending.response = results;
+            pending.failure = failure;
+            ctx.executor().execute(() -> complete(ctx, pending));
+        }
+        release(ctx, permits);
+    }
+    
+    private void complete(ChannelHandlerContext ctx, PendingResponse pending) {
+        pending.done = true;
+        boolean written = false;
+        while (!pendingResponses.isEmpty() && pendingResponses.peek().done) {
+            PendingResponse head = pendingResponses.poll();
+            if (head.failure != null) {
+                ctx.fireExceptionCaught(head.failure);
+            } else {
+                ctx.write(head.response);
+                written = true;
+            }
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+    
+    /**
+     * Runs the command against its container. Failures of correlated commands are reported
+     * to the client in the response, failures of uncorrelated commands are rethrown.
+     */
+    private ContainerExecutionResults execute(ContainerCommand cc) {
+        RequestTimer timer = RequestTimer.of(cc);
+        if (timer != null) {
+            timer.started();
+        }
+        if (cc.isExpired()) {
+            return new ContainerExecutionResults(cc, ContainerExecutionResults.STATUS_TIMEOUT, "Deadline passed before execution");
+        }
+        try {
+            KieContainerInstanceImpl kci = registry.getContainer(cc.getContainerId());
+            if (kci == null && cc.isCorrelated()) {
+                return new ContainerExecutionResults(cc, ContainerExecutionResults.STATUS_ERROR, "Container " + cc.getContainerId() + " not found");
+            }
+            Command<?> command = cc.getCommand();
+            if (!(command instanceof BatchExecutionCommandImpl)) {
+                command = new BatchExecutionCommandImpl(Arrays.asList(new GenericCommand<?>[]{(GenericCommand<?>) command}));
+            }
+            BatchExecutionCommandImpl batch = (BatchExecutionCommandImpl) command;
+            if (kci == null || !cc.hasDeadline()) {
+                return new ContainerExecutionResults(cc, rulesExecutionService.call(kci, batch));
+            }
+            return executeWithDeadline(cc, kci, batch);
+        } catch (RuntimeException e) {
+            if (!cc.isCorrelated()) {
+                throw e;
+            }
+            LOG.warn("Error executing request {} on container {}", cc.getRequestId(), cc.getContainerId(), e);
+            return error(cc, e);
+        } finally {
+            if (timer != null) {
+                timer.executed();
+            }
+        }
+    }
+    
+    /**
+     * Runs the command, halting its session from Netty's global executor while it runs past its deadline, 
+     * as the channel's event loop may be the thread running it. The halt is repeated because a halt before 
+     * <code>fireAllRules</code> starts is cleared by it. The session is only halted when the command runs on
+     * the lane of the session, as no other command of the lane can be running on it then.
+     */
+    private ContainerExecutionResults executeWithDeadline(ContainerCommand cc, KieContainerInstanceImpl kci, BatchExecutionCommandImpl batch) {
+        CommandExecutor executor = batch.getLookup() == null ? kci.getKieContainer().getKieSession() 
+                : registry.getKieSessionLookupManager().lookup(batch.getLookup(), kci, registry);
+        Halt halt = null;
+        if (executor instanceof KieSession && ExecutorLanes.current() != null) {
+            halt = new Halt(cc, (KieSession) executor);
+            halt.future = GlobalEventExecutor.INSTANCE.scheduleAtFixedRate(halt, cc.getRemainingMillis(), HALT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        try {
+            ExecutionResults results = rulesExecutionService.call(kci, batch);
+            if (cc.isExpired()) {
+                return new ContainerExecutionResults(cc, ContainerExecutionResults.STATUS_TIMEOUT, "Deadline passed during execution");
+            }
+            return new ContainerExecutionResults(cc, results);
+        } finally {
+            if (halt != null) {
+                halt.stop();
+            }
+        }
+    }
+    
+    private ContainerExecutionResults error(ContainerCommand cc, Throwable t) {
+        return new ContainerExecutionResults(cc, ContainerExecutionResults.STATUS_ERROR, t.getMessage());
+    }
     
+    /**
+     * Halts the session of a command while the command runs. Stopped before the next command of the lane 
+     * starts, including when a halt is being run, which is why running and stopping are synchronized.
+     */
+    private static class Halt implements Runnable {
+        
+        private final ContainerCommand cc;
+        
+        private final KieSession session;
+        
+        private ScheduledFuture<?> future;
+        
+        private boolean running = true;
+        
+        private Halt(ContainerCommand cc, KieSession session) {
+            this.cc = cc;
+            this.session = session;
+        }
+        
+        @Override
+        public synchronized void run() {
+            if (running) {
+                LOG.debug("Halting request {} on container {} past its deadline", cc.getRequestId(), cc.getContainerId());
+                session.halt();
+            }
+        }
+        
+        private void stop() {
+            synchronized (this) {
+                running = false;
+            }
+            future.cancel(false);
+        }
+        
+    }
+    
+    private static class LaneTask {
+        
+        private final ContainerCommand cc;
+        
+        private final AdmissionControl.Permits permits;
+        
+        private final PendingResponse pending;
+        
+        private final ExecutorLanes.Lane lane;
+        
+        private final Runnable task;
+        
+        private LaneTask(ContainerCommand cc, AdmissionControl.Permits permits, PendingResponse pending, ExecutorLanes.Lane lane, Runnable task) {
+            this.cc = cc;
+            this.permits = permits;
+            this.pending = pending;
+            this.lane = lane;
+            this.task = task;
+        }
+        
+    }
+    
+    private static class PendingResponse {
+        
+        private ContainerExecutionResults response;
+        
+        private Throwable failure;
+        
+        private boolean done;
+        
+    }
 
 }
@@ -0,0 +1,186 @@
+package org.kie.server.ext.netty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.drools.compiler.kproject.xml.DependencyFilter;
+import org.kie.api.builder.ReleaseId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The resolved dependency jars of kjars, by release id, kept in memory and on disk. Containers of the 
+ * same release id share one resolution, even when they are created at the same time. Snapshots are 
+ * always resolved.
+ * <p>
+ * A cached list is only used while all its jars still exist. A resolution that missed some dependencies,
+ * because a repository could not be reached, is not cached, so that the next container resolves them again.
+ * Cache files the server user does not own are ignored.
+ */
+public class DependencyCache {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(DependencyCache.class);
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private static final boolean RESOLVE_CACHE = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.resolve.cache", "true"));
+    private static final File RESOLVE_CACHE_DIR = new File(System.getProperty("org.kie.server.drools-netty.ext.resolve.cache.dir", 
+                                                                              CacheFiles.defaultDir("deps").getPath()));
+    
+    private static final ConcurrentMap<String, CompletableFuture<List<File>>> dependencyJars = new ConcurrentHashMap<>();
+    
+    private DependencyCache() {}
+    
+    public static List<File> getDependencyJars(ReleaseId releaseId, DependencyFilter filter, Supplier<Resolution> resolution) {
+        if (!RESOLVE_CACHE || releaseId == null || releaseId.isSnapshot()) {
+            return resolution.get().getJars();
+        }
+        String key = releaseId.toExternalForm() + "|" + filterName(filter);
+        CompletableFuture<List<File>> future = dependencyJars.get(key);
+        if (future == null) {
+            CompletableFuture<List<File>> created = new CompletableFuture<>();
+            future = dependencyJars.putIfAbsent(key, created);
+            if (future == null) {
+                try {
+                    List<File> jars = load(key);
+                    boolean complete = true;
+                    if (jars == null) {
+                        Resolution resolved = resolution.get();
+                        jars = resolved.getJars();
+                        complete = resolved.isComplete();
+                        if (complete) {
+                            store(key, jars);
+                        }
+                    }
+                    created.complete(jars);
+                    if (!complete) {
+                        // the containers waiting for it get what was resolved, the next ones resolve again
+                        dependencyJars.remove(key, created);
+                    }
+                    return jars;
+                } catch (RuntimeException | Error e) {
+                    dependencyJars.remove(key, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        }
+        List<File> jars = future.join();
+        if (!allExist(jars)) {
+            // a jar was removed from the repository since, resolve again
+            dependencyJars.remove(key, future);
+            delete(key);
+            return getDependencyJars(releaseId, filter, resolution);
+        }
+        return jars;
+    }
+    
+    /**
+     * The dependency jars of a kjar, complete only if every declared dependency was resolved.
+     */
+    public static class Resolution {
+        
+        private final List<File> jars;
+        
+        private final boolean complete;
+        
+        public Resolution(List<File> jars, boolean complete) {
+            this.jars = jars;
+            this.complete = complete;
+        }
+
+        public List<File> getJars() {
+            return jars;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+        
+    }
+    
+    private static List<File> load(String key) {
+        File cacheFile = cacheFile(key);
+        if (!cacheFile.isFile() || !CacheFiles.isOwned(cacheFile)) {
+            return null;
+        }
+        try {
+            List<File> jars = new ArrayList<>();
+            for (String line : Files.readAllLines(cacheFile.toPath(), UTF_8)) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    jars.add(new File(line));
+                }
+            }
+            return allExist(jars) ? jars : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    private static void store(String key, List<File> jars) {
+        List<String> lines = new ArrayList<>(jars.size() + 1);
+        lines.add("# " + key);
+        for (File jar : jars) {
+            lines.add(jar.getAbsolutePath());
+        }
+        try {
+            CacheFiles.createDir(RESOLVE_CACHE_DIR);
+            File cacheFile = cacheFile(key);
+            File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", RESOLVE_CACHE_DIR);
+            try {
+                Files.write(tmpFile.toPath(), lines, UTF_8);
+                Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not store the dependencies of " + key, e);
+        }
+    }
+    
+    private static void delete(String key) {
+        cacheFile(key).delete();
+    }
+    
+    private static boolean allExist(List<File> jars) {
+        for (File jar : jars) {
+            if (!jar.isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static String filterName(DependencyFilter filter) {
+        if (filter == DependencyFilter.COMPILE_FILTER) {
+            return "compile";
+        } else if (filter == DependencyFilter.TAKE_ALL_FILTER) {
+            return "all";
+        }
+        return filter.getClass().getName();
+    }
+    
+    private static File cacheFile(String key) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return new File(RESOLVE_CACHE_DIR, sb.append(".deps").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -1,35 +1,58 @@
 package org.kie.server.ext.netty;
 
 import java.util.List;
-import java.util.Map;
 
-import org.kie.server.api.marshalling.Marshaller;
 import org.kie.server.ext.netty.codec.Codec;
 import org.kie.server.ext.netty.codec.ContainerExecutionResults;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToMessageEncoder;
 
 public class ExecutionResultsEncoder extends MessageToMessageEncoder<ContainerExecutionResults> {
     
-    private Map<String, Marshaller> marshallers;
+    private MarshallerRegistry marshallerRegistry;
+    
+    private AllocationMetrics allocationMetrics;
     
     private Codec codec = new Codec();
     
-    public ExecutionResultsEncoder(Map<String, Marshaller> marshallers) {
-        this.marshallers = marshallers;
+    public ExecutionResultsEncoder(MarshallerRegistry marshallerRegistry, AllocationMetrics allocationMetrics) {
+        this.marshallerRegistry = marshallerRegistry;
+        this.allocationMetrics = allocationMetrics;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        RequestTimer timer = msg instanceof ContainerExecutionResults ? RequestTimer.of((ContainerExecutionResults) msg) : null;
+        super.write(ctx, msg, promise);
+        if (timer != null && promise != ctx.voidPromise()) {
+            // completes once the response has been written to the socket
+            promise.addListener(f -> timer.flushed());
+        }
     }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, ContainerExecutionResults msg, List<Object> out) throws Exception {
         
-        String containerId = msg.getContainerId();
-        codec.setMarshaller(marshallers.get(containerId));
-        ByteBuf byteBuf = Unpooled.buffer();
-        codec.encodeExecutionResults(msg.getExecutionResults(), byteBuf);
+        long allocated = allocationMetrics.allocatedBytes();
+        RequestTimer timer = RequestTimer.of(msg);
+        long start = timer != null ? System.nanoTime() : 0;
+        // results are encoded with the marshaller their command was decoded with
+        codec.setMarshaller(msg.getMarshaller() != null ? msg.getMarshaller() : marshallerRegistry.getMarshaller(msg.getContainerId()));
+        ByteBuf byteBuf = ctx.alloc().ioBuffer();
+        try {
+            codec.encodeContainerExecutionResults(msg, byteBuf);
+        } catch (Throwable t) {
+            byteBuf.release();
+            throw t;
+        }
         out.add(byteBuf);
+        if (timer != null) {
+            timer.encoded(start, byteBuf.readableBytes());
+        }
+        allocationMetrics.recordEncode(allocated);
     }
 
 }
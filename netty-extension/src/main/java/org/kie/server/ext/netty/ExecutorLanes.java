@@ -0,0 +1,217 @@
+package org.kie.server.ext.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.kie.server.services.api.KieServerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps every KieSession, identified by container id and session lookup, to its own single threaded lane
+ * with a bounded queue. Work for different sessions runs in parallel, work for the same session is
+ * serialized by its lane so that concurrent requests do not contend on the session.
+ * <p>
+ * The lane thread is released when the lane is idle. Submitting to a lane with a full queue throws
+ * a <code>RejectedExecutionException</code>.
+ * <p>
+ * Lanes are only created for containers of the registry, up to the configured number of lanes, and are
+ * removed when their container is disposed.
+ */
+public class ExecutorLanes {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutorLanes.class);
+    
+    private static final ThreadLocal<Lane> CURRENT = new ThreadLocal<>();
+    
+    private final int queueSize;
+    
+    private final int maxLanes;
+    
+    private final KieServerRegistry registry;
+    
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    
+    private final LongAdder refused = new LongAdder();
+    
+    public ExecutorLanes(int queueSize, int maxLanes, KieServerRegistry registry) {
+        this.queueSize = queueSize;
+        this.maxLanes = maxLanes;
+        this.registry = registry;
+    }
+    
+    /**
+     * @throws RejectedExecutionException if the session has no lane or its lane is full
+     */
+    public void execute(String containerId, String lookup, Runnable task) {
+        Lane lane = lane(containerId, lookup);
+        if (lane == null) {
+            throw new RejectedExecutionException("No lane for container " + containerId);
+        }
+        lane.execute(task);
+    }
+    
+    /**
+     * @return the lane of the session, or null if its container is not in the registry or the maximum number of lanes is reached
+     */
+    public Lane lane(String containerId, String lookup) {
+        String key = lookup == null ? containerId : containerId + "/" + lookup;
+        Lane lane = lanes.get(key);
+        if (lane == null) {
+            lane = newLane(containerId, key);
+        }
+        return lane;
+    }
+    
+    private synchronized Lane newLane(String containerId, String key) {
+        Lane lane = lanes.get(key);
+        if (lane != null) {
+            return lane;
+        }
+        if (registry.getContainer(containerId) == null) {
+            return null;
+        }
+        if (lanes.size() >= maxLanes) {
+            if (refused.sum() == 0) {
+                LOG.warn("Maximum number of lanes ({}) reached, sessions without a lane run without one", maxLanes);
+            }
+            refused.increment();
+            return null;
+        }
+        lane = new Lane(containerId, key, queueSize);
+        lanes.put(key, lane);
+        return lane;
+    }
+    
+    /**
+     * @return the lane running the calling thread's task, null if the thread is not running a task of a lane
+     */
+    public static Lane current() {
+        return CURRENT.get();
+    }
+    
+    public List<Lane> getLanes() {
+        return new ArrayList<>(lanes.values());
+    }
+    
+    /**
+     * @return how many times a lane was not created because the maximum number of lanes was reached
+     */
+    public long getRefused() {
+        return refused.sum();
+    }
+    
+    /**
+     * Removes the lanes of a container. Tasks already queued still run.
+     */
+    public synchronized void disposeContainer(String containerId) {
+        for (Lane lane : lanes.values()) {
+            if (lane.containerId.equals(containerId)) {
+                lanes.remove(lane.key, lane);
+                lane.executor.shutdown();
+            }
+        }
+    }
+    
+    public synchronized void shutdown() {
+        for (Lane lane : lanes.values()) {
+            lane.executor.shutdown();
+        }
+        lanes.clear();
+    }
+    
+    public static class Lane {
+        
+        private final String containerId;
+        
+        private final String key;
+        
+        private final ThreadPoolExecutor executor;
+        
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder totalWaitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        
+        private Lane(String containerId, String key, int queueSize) {
+            this.containerId = containerId;
+            this.key = key;
+            this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), 
+                                                   r -> {
+                                                       Thread t = new Thread(r, "netty-lane-" + key);
+                                                       t.setDaemon(true);
+                                                       return t;
+                                                   });
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+        
+        public void execute(Runnable task) {
+            long enqueued = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    long wait = System.nanoTime() - enqueued;
+                    totalWaitNanos.add(wait);
+                    maxWaitNanos.accumulateAndGet(wait, Math::max);
+                    CURRENT.set(this);
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        LOG.error("Unexpected error in lane {}", key, t);
+                    } finally {
+                        CURRENT.remove();
+                        completed.increment();
+                    }
+                });
+            } catch (RuntimeException e) {
+                rejected.increment();
+                throw e;
+            }
+        }
+        
+        /**
+         * @return true once the lane has been removed, it then rejects all tasks
+         */
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public String getContainerId() {
+            return containerId;
+        }
+        
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+        
+        public long getCompleted() {
+            return completed.sum();
+        }
+        
+        public long getRejected() {
+            return rejected.sum();
+        }
+        
+        public long getAverageWaitMicros() {
+            long count = completed.sum();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum() / count);
+        }
+        
+        public long getMaxWaitMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get());
+        }
+        
+    }
+
+}
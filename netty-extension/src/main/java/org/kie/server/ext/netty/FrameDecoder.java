@@ -0,0 +1,38 @@
+package org.kie.server.ext.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+/**
+ * Length field based frame decoder that hands out retained slices of the cumulation buffer
+ * instead of copying every frame into a newly allocated buffer.
+ */
+public class FrameDecoder extends LengthFieldBasedFrameDecoder {
+    
+    private PipelineMetrics metrics;
+
+    public FrameDecoder(int maxFrameLength, PipelineMetrics metrics) {
+        super(maxFrameLength, 0, 4, 0, 4);
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (!metrics.isEnabled()) {
+            return super.decode(ctx, in);
+        }
+        long start = System.nanoTime();
+        Object frame = super.decode(ctx, in);
+        if (frame != null) {
+            metrics.frameDecoded(start);
+        }
+        return frame;
+    }
+
+    @Override
+    protected ByteBuf extractFrame(ChannelHandlerContext ctx, ByteBuf buffer, int index, int length) {
+        return buffer.slice(index, length).retain();
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.kie.server.ext.netty;
+
+import org.kie.server.ext.netty.codec.ContainerSchema;
+import org.kie.server.ext.netty.codec.Handshake;
+import org.kie.server.ext.netty.codec.SchemaRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Answers the control frames of a connection: negotiates the protocol version and capabilities on a
+ * {@link Handshake}, and sends the schemas of a container on a {@link SchemaRequest}. Other messages are
+ * passed on.
+ */
+public class HandshakeHandler extends ChannelInboundHandlerAdapter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HandshakeHandler.class);
+    
+    private MarshallerRegistry marshallerRegistry;
+    
+    private int capabilities;
+
+    public HandshakeHandler(MarshallerRegistry marshallerRegistry, int capabilities) {
+        this.marshallerRegistry = marshallerRegistry;
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Handshake) {
+            Handshake negotiated = ((Handshake) msg).negotiate(Handshake.PROTOCOL_VERSION, capabilities);
+            logger.debug("Negotiated {} with {}", negotiated, ctx.channel().remoteAddress());
+            // the answer itself is sent before the negotiated capabilities, compression in particular, apply
+            ctx.writeAndFlush(negotiated);
+            ctx.channel().attr(Handshake.NEGOTIATED).set(negotiated);
+        } else if (msg instanceof SchemaRequest) {
+            SchemaRequest request = (SchemaRequest) msg;
+            ContainerSchema schema = marshallerRegistry.getSchema(request.getContainerId());
+            ctx.writeAndFlush(schema == null ? ContainerSchema.notFound(request) : schema.answer(request));
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.kie.server.ext.netty;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a dependency jar contributes to the marshalling of a container: its proto files and the headers
+ * of its classes that have supertypes other than <code>java.lang.Object</code>, from which the 
+ * <code>MessageMarshaller</code> implementations are found.
+ * <p>
+ * Indexes are stored in a directory, one file per jar, named after the jar path, size and modification time. 
+ * A jar that changes gets a new index file.
+ */
+public class JarIndex {
+    
+    private static final int FORMAT_VERSION = 2;
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final Map<String, String> protoFiles = new LinkedHashMap<>();
+    
+    private final List<ClassHeader> classHeaders = new ArrayList<>();
+
+    public Map<String, String> getProtoFiles() {
+        return protoFiles;
+    }
+
+    public List<ClassHeader> getClassHeaders() {
+        return classHeaders;
+    }
+    
+    /**
+     * @return the stored index of the jar, or null if the jar has not been indexed since it last changed,
+     *         or its index file is not owned by the server user
+     */
+    public static JarIndex load(File indexDir, File jar) {
+        File indexFile = indexFile(indexDir, jar);
+        if (!indexFile.isFile() || !CacheFiles.isOwned(indexFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            JarIndex index = new JarIndex();
+            int numProtoFiles = in.readInt();
+            for (int i = 0; i < numProtoFiles; i++) {
+                String name = readString(in);
+                index.protoFiles.put(name, readString(in));
+            }
+            int numClasses = in.readInt();
+            for (int i = 0; i < numClasses; i++) {
+                String className = readString(in);
+                int accessFlags = in.readInt();
+                String[] supertypes = new String[in.readInt()];
+                for (int j = 0; j < supertypes.length; j++) {
+                    supertypes[j] = in.readBoolean() ? readString(in) : null;
+                }
+                index.classHeaders.add(new ClassHeader(className, accessFlags, supertypes));
+            }
+            return index;
+        } catch (IOException e) {
+            // unreadable index, the jar is scanned again
+            return null;
+        }
+    }
+    
+    /**
+     * Stores the index of the jar. The index file is written aside and moved in place, so that 
+     * concurrent readers never see a partial index.
+     */
+    public void store(File indexDir, File jar) throws IOException {
+        CacheFiles.createDir(indexDir);
+        File indexFile = indexFile(indexDir, jar);
+        File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexDir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(protoFiles.size());
+                for (Map.Entry<String, String> protoFile : protoFiles.entrySet()) {
+                    writeString(protoFile.getKey(), out);
+                    writeString(protoFile.getValue(), out);
+                }
+                out.writeInt(classHeaders.size());
+                for (ClassHeader header : classHeaders) {
+                    writeString(header.getClassName(), out);
+                    out.writeInt(header.getAccessFlags());
+                    out.writeInt(header.getSupertypes().length);
+                    for (String supertype : header.getSupertypes()) {
+                        out.writeBoolean(supertype != null);
+                        if (supertype != null) {
+                            writeString(supertype, out);
+                        }
+                    }
+                }
+            }
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+    
+    private static File indexFile(File indexDir, File jar) {
+        String key = jar.getAbsolutePath() + "|" + jar.length() + "|" + jar.lastModified();
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return new File(indexDir, sb.append(".idx").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static void writeString(String s, DataOutputStream out) throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+}
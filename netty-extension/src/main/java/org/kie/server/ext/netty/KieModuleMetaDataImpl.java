@@ -2,16 +2,23 @@ package org.kie.server.ext.netty;
 
 import static org.drools.core.util.IoUtils.readBytesFromZipEntry;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -26,12 +33,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
+/**
+ * Finds the proto files and marshallers of a container in its kjar and dependencies. Jars are scanned 
+ * in parallel, and what was found in a jar is kept in an on-disk {@link JarIndex}, so that a jar that did
+ * not change is not scanned again when the container is redeployed or the server restarted.
+ * <p>
+ * Classes are not loaded while scanning: the type hierarchy is built from the class file headers, and only 
+ * the concrete classes implementing <code>MessageMarshaller</code> are loaded.
+ * <p>
+ * A kjar can list its marshallers in <code>META-INF/services/org.infinispan.protostream.MessageMarshaller</code>,
+ * in which case no jar is scanned. The proto files are then the ones of the kjar, plus the class path resources 
+ * listed in <code>META-INF/kie-netty.protofiles</code>.
+ */
 public class KieModuleMetaDataImpl {
     
     private static final Logger LOG = LoggerFactory.getLogger(KieModuleMetaDataImpl.class);
     
     private static final List<String> blackListed = initBlackListedPackages();
     
+    private static final int SCAN_THREADS = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.scan.threads", 
+                                                                                 String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final boolean SCAN_INDEX = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.scan.index", "true"));
+    private static final File SCAN_INDEX_DIR = new File(System.getProperty("org.kie.server.drools-netty.ext.scan.index.dir", 
+                                                                           CacheFiles.defaultDir("index").getPath()));
+    
+    // shared by all containers, so that creating several containers at once does not multiply the scanning threads
+    private static final ForkJoinPool scanPool = new ForkJoinPool(Math.max(1, SCAN_THREADS));
+    
+    private static final String MARSHALLERS_LISTING = "META-INF/services/" + MessageMarshaller.class.getName();
+    private static final String PROTO_FILES_LISTING = "META-INF/kie-netty.protofiles";
+    
     private final ArtifactResolver artifactResolver;
     
     private KieContainerInstance kieContainerInstance;
@@ -40,7 +71,9 @@ public class KieModuleMetaDataImpl {
     
     private final DependencyFilter dependencyFilter;
     
-    private final Map<URI, File> jars = new HashMap<>();
+    private final Map<URI, File> jars = new LinkedHashMap<>();
+    
+    private File kjarFile;
     
     private final Map<String, String> protoFiles = new HashMap<>();
     
@@ -64,28 +97,185 @@ public class KieModuleMetaDataImpl {
 
     private void init() {
         if (releaseId != null) {
-            addArtifact(artifactResolver.resolveArtifact(releaseId));
+            Artifact kjar = artifactResolver.resolveArtifact(releaseId);
+            addArtifact(kjar);
+            kjarFile = kjar != null ? kjar.getFile() : null;
+        }
+        if (kjarFile != null && readListings(kjarFile)) {
+            return;
+        }
+        for (File jarFile : DependencyCache.getDependencyJars(releaseId, dependencyFilter, this::resolveDependencyJars)) {
+            addJar(jarFile);
+        }
+        List<ForkJoinTask<JarIndex>> tasks = new ArrayList<>(jars.size());
+        for (File jarFile : jars.values()) {
+            tasks.add(scanPool.submit(() -> index(jarFile)));
+        }
+        // merge in dependency order, whatever order the jars were scanned in
+        Map<String, ClassHeader> hierarchy = new HashMap<>();
+        for (ForkJoinTask<JarIndex> task : tasks) {
+            JarIndex index = task.join();
+            protoFiles.putAll(index.getProtoFiles());
+            for (ClassHeader header : index.getClassHeaders()) {
+                hierarchy.putIfAbsent(header.getClassName(), header);
+            }
+        }
+        Map<String, Boolean> implementers = new HashMap<>();
+        for (ClassHeader header : hierarchy.values()) {
+            if (header.isConcrete() && implementsMarshaller(header.getClassName(), hierarchy, implementers)) {
+                addMarshaller(header.getClassName());
+            }
+        }
+    }
+    
+    private boolean implementsMarshaller(String className, Map<String, ClassHeader> hierarchy, Map<String, Boolean> implementers) {
+        if (MessageMarshaller.class.getName().equals(className)) {
+            return true;
+        }
+        Boolean known = implementers.get(className);
+        if (known != null) {
+            return known;
         }
+        ClassHeader header = hierarchy.get(className);
+        if (header == null) {
+            // outside of the scanned jars
+            return false;
+        }
+        implementers.put(className, false);
+        for (String supertype : header.getSupertypes()) {
+            if (supertype != null && implementsMarshaller(supertype, hierarchy, implementers)) {
+                implementers.put(className, true);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void addMarshaller(String className) {
+        try {
+            Class<?> clazz = Class.forName(className, true, kieContainerInstance.getKieContainer().getClassLoader());
+            LOG.info("Marshaller :" + className);
+            marshallers.add(clazz);
+        } catch (ClassNotFoundException | NoClassDefFoundError e) {
+            LOG.warn("Marshaller class not found : " + className);
+        }
+    }
+    
+    /**
+     * Reads the marshallers and proto files listed in the kjar.
+     * 
+     * @return false if the kjar lists no marshallers, and its dependencies have to be scanned
+     */
+    private boolean readListings(File kjarFile) {
+        try (ZipFile zipFile = new ZipFile(kjarFile)) {
+            ZipEntry marshallersListing = zipFile.getEntry(MARSHALLERS_LISTING);
+            if (marshallersListing == null) {
+                return false;
+            }
+            for (String className : readListing(zipFile, marshallersListing)) {
+                addMarshaller(className);
+            }
+            Enumeration< ? extends ZipEntry> entries = zipFile.entries();
+            while ( entries.hasMoreElements() ) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".proto")) {
+                    protoFiles.put(entry.getName(), new String(readBytesFromZipEntry(kjarFile, entry), IoUtils.UTF8_CHARSET));
+                }
+            }
+            ZipEntry protoFilesListing = zipFile.getEntry(PROTO_FILES_LISTING);
+            if (protoFilesListing != null) {
+                ClassLoader classLoader = kieContainerInstance.getKieContainer().getClassLoader();
+                for (String resource : readListing(zipFile, protoFilesListing)) {
+                    InputStream in = classLoader.getResourceAsStream(resource);
+                    if (in == null) {
+                        LOG.warn("Proto file not found : " + resource);
+                        continue;
+                    }
+                    try {
+                        protoFiles.put(resource, new String(IoUtils.readBytesFromInputStream(in), IoUtils.UTF8_CHARSET));
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            LOG.info("Using the marshallers listed in kjar " + kjarFile);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static List<String> readListing(ZipFile zipFile, ZipEntry entry) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(zipFile.getInputStream(entry), IoUtils.UTF8_CHARSET))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                line = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+    
+    private DependencyCache.Resolution resolveDependencyJars() {
+        List<ReleaseId> releaseIds = new ArrayList<>();
         for ( DependencyDescriptor dep : artifactResolver.getAllDependecies(dependencyFilter) ) {
-            addArtifact( artifactResolver.resolveArtifact( dep.getReleaseId() ) );
+            releaseIds.add( dep.getReleaseId() );
         }
+        List<File> jarFiles = new ArrayList<>();
+        for (Artifact artifact : artifactResolver.resolveArtifacts(releaseIds)) {
+            if (isJar(artifact)) {
+                jarFiles.add(artifact.getFile());
+            }
+        }
+        Set<String> unresolved = artifactResolver.getUnresolved();
+        if (!unresolved.isEmpty()) {
+            LOG.warn("Unable to resolve {} for {}, its marshallers and proto files may be missing", unresolved, releaseId);
+        }
+        return new DependencyCache.Resolution(jarFiles, unresolved.isEmpty());
     }
     
     private void addArtifact(Artifact artifact) {
-        if (artifact != null && artifact.getExtension() != null && artifact.getExtension().equals("jar")) {
+        if (isJar(artifact)) {
             addJar(artifact.getFile());
         }
     }
     
+    private static boolean isJar(Artifact artifact) {
+        return artifact != null && artifact.getExtension() != null && artifact.getExtension().equals("jar");
+    }
+    
     private void addJar(File jarFile) {
         URI uri = jarFile.toURI();
         if (!jars.containsKey(uri)) {
             jars.put(uri, jarFile);
-            scanJar(jarFile);
         }
     }
     
-    private void scanJar(File jarFile) {
+    private JarIndex index(File jarFile) {
+        if (SCAN_INDEX) {
+            JarIndex index = JarIndex.load(SCAN_INDEX_DIR, jarFile);
+            if (index != null) {
+                LOG.debug("Using index of jar {}", jarFile);
+                return index;
+            }
+        }
+        JarIndex index = scanJar(jarFile);
+        if (SCAN_INDEX) {
+            try {
+                index.store(SCAN_INDEX_DIR, jarFile);
+            } catch (IOException e) {
+                LOG.warn("Could not store index of jar " + jarFile, e);
+            }
+        }
+        return index;
+    }
+    
+    private JarIndex scanJar(File jarFile) {
+        JarIndex index = new JarIndex();
         ZipFile zipFile = null;
         try {
             zipFile = new ZipFile( jarFile );
@@ -98,18 +288,17 @@ public class KieModuleMetaDataImpl {
                     //look for proto files
                     if (type.extensionName.equals("proto")) {
                         LOG.info("Proto :" + pathName + " in jar " + jarFile);
-                        protoFiles.put(pathName, new String(readBytesFromZipEntry(jarFile, entry), IoUtils.UTF8_CHARSET));    
+                        index.getProtoFiles().put(pathName, new String(readBytesFromZipEntry(jarFile, entry), IoUtils.UTF8_CHARSET));    
                     }
-                    // look for instances of MessageMarshaller
+                    // collect the type hierarchy, to look for instances of MessageMarshaller
                     if (type.isClass()) {
-                        try {
-                            Class<?> clazz = Class.forName(type.getType(), true, kieContainerInstance.getKieContainer().getClassLoader());
-                            if (MessageMarshaller.class.isAssignableFrom(clazz)) {
-                                LOG.info("Marshaller :" + clazz.getName() + " in jar " + jarFile);
-                                marshallers.add(clazz);
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            ClassHeader header = ClassHeader.read(new BufferedInputStream(in));
+                            if (!header.isTrivial()) {
+                                index.getClassHeaders().add(header);
                             }
-                        } catch (ClassNotFoundException | NoClassDefFoundError e) {
-                            LOG.warn("Class not found : " + type.getType());
+                        } catch (IOException e) {
+                            LOG.warn("Unreadable class file : " + pathName + " in jar " + jarFile);
                         }
                     }
                 }
@@ -125,6 +314,7 @@ public class KieModuleMetaDataImpl {
                 }
             }
         }
+        return index;
     }
     
     private boolean isBlacklisted(String pkg) {
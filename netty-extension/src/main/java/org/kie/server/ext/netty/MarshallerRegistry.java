@@ -0,0 +1,169 @@
+package org.kie.server.ext.netty;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kie.api.builder.ReleaseId;
+import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.ext.netty.codec.ContainerSchema;
+import org.kie.server.services.api.KieContainerInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The marshallers of the containers, read by the event loops while containers are created, updated and disposed.
+ * <p>
+ * A container's marshaller and schema are published together as an immutable {@link Version}, only once fully 
+ * built. When the release id of a container changes, the new version is built in the background while requests 
+ * keep using the current one, and then swapped in. Requests decoded with a version are answered with the same 
+ * version, which stays reachable until they complete.
+ */
+public class MarshallerRegistry {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MarshallerRegistry.class);
+    
+    @FunctionalInterface
+    public interface Builder {
+        
+        Version build(String containerId, KieContainerInstance kieContainerInstance) throws Exception;
+        
+    }
+    
+    private final ConcurrentMap<String, Version> versions = new ConcurrentHashMap<>();
+    
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+    
+    private final AtomicLong versionCounter = new AtomicLong();
+    
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "netty-marshaller-builder");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private final Builder builder;
+
+    public MarshallerRegistry(Builder builder) {
+        this.builder = builder;
+    }
+    
+    /**
+     * Builds the first version of a container's marshaller, before the container receives requests.
+     */
+    public Version create(String containerId, KieContainerInstance kieContainerInstance) throws Exception {
+        Version version = builder.build(containerId, kieContainerInstance);
+        version.number = versionCounter.incrementAndGet();
+        versions.put(containerId, version);
+        logger.info("Marshaller version {} of container {} installed", version.number, containerId);
+        return version;
+    }
+    
+    /**
+     * Builds a new version of a container's marshaller in the background, and swaps it in if the version
+     * it replaces is still installed once built, that is if the container was neither disposed nor created 
+     * again meanwhile. Does nothing if a build is already running for the container.
+     */
+    public void rebuild(String containerId, KieContainerInstance kieContainerInstance) {
+        if (!rebuilding.add(containerId)) {
+            return;
+        }
+        Version expected = versions.get(containerId);
+        if (expected == null) {
+            rebuilding.remove(containerId);
+            return;
+        }
+        rebuildExecutor.execute(() -> {
+            try {
+                Version version = builder.build(containerId, kieContainerInstance);
+                version.number = versionCounter.incrementAndGet();
+                if (versions.replace(containerId, expected, version)) {
+                    logger.info("Marshaller version {} of container {} installed", version.number, containerId);
+                }
+            } catch (Throwable t) {
+                logger.error("Error rebuilding marshaller of container {}, keeping the current one", containerId, t);
+            } finally {
+                rebuilding.remove(containerId);
+            }
+        });
+    }
+    
+    /**
+     * Rebuilds the marshaller of a container if the container was updated to another release since 
+     * its marshaller was built.
+     */
+    public void checkReleaseId(String containerId, KieContainerInstance kieContainerInstance) {
+        Version version = versions.get(containerId);
+        if (version != null && version.releaseId != null 
+                && !version.releaseId.equals(kieContainerInstance.getKieContainer().getReleaseId())) {
+            rebuild(containerId, kieContainerInstance);
+        }
+    }
+    
+    /**
+     * Removes the marshaller of a container. A build running for the container is discarded.
+     */
+    public void dispose(String containerId) {
+        Version version = versions.remove(containerId);
+        if (version != null) {
+            logger.info("Marshaller version {} of container {} disposed", version.number, containerId);
+        }
+    }
+    
+    public Version getVersion(String containerId) {
+        return versions.get(containerId);
+    }
+    
+    public Marshaller getMarshaller(String containerId) {
+        Version version = versions.get(containerId);
+        return version == null ? null : version.marshaller;
+    }
+    
+    public ContainerSchema getSchema(String containerId) {
+        Version version = versions.get(containerId);
+        return version == null ? null : version.schema;
+    }
+    
+    public void shutdown() {
+        rebuildExecutor.shutdownNow();
+        versions.clear();
+    }
+    
+    public static class Version {
+        
+        private long number;
+        
+        private final ReleaseId releaseId;
+        
+        private final Marshaller marshaller;
+        
+        private final ContainerSchema schema;
+
+        public Version(ReleaseId releaseId, Marshaller marshaller, ContainerSchema schema) {
+            this.releaseId = releaseId;
+            this.marshaller = marshaller;
+            this.schema = schema;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        public ReleaseId getReleaseId() {
+            return releaseId;
+        }
+
+        public Marshaller getMarshaller() {
+            return marshaller;
+        }
+
+        public ContainerSchema getSchema() {
+            return schema;
+        }
+        
+    }
+
+}
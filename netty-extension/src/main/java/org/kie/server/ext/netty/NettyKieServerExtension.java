@@ -1,9 +1,12 @@
 package org.kie.server.ext.netty;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,8 +15,13 @@ import org.drools.compiler.kproject.xml.DependencyFilter;
 import org.infinispan.protostream.BaseMarshaller;
 import org.infinispan.protostream.FileDescriptorSource;
 import org.infinispan.protostream.SerializationContext;
+import org.kie.api.builder.ReleaseId;
 import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.ext.netty.codec.ContainerSchema;
+import org.kie.server.ext.netty.codec.FrameCompressor;
+import org.kie.server.ext.netty.codec.Handshake;
 import org.kie.server.ext.netty.marshaller.ProtoStreamMarshaller;
+import org.kie.server.ext.netty.marshaller.TypeIdTable;
 import org.kie.server.services.api.KieContainerInstance;
 import org.kie.server.services.api.KieServerExtension;
 import org.kie.server.services.api.KieServerRegistry;
@@ -24,10 +32,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import io.netty.util.concurrent.EventExecutorGroup;
 
@@ -39,12 +57,59 @@ public class NettyKieServerExtension implements KieServerExtension {
     private static final Boolean disabled = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.disabled", "false"));
     private static final String NETTY_HOST = System.getProperty("org.kie.server.drools-netty.ext.host", "localhost");
     private static final int NETTY_PORT = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.port", "8888"));
+    private static final String NETTY_UDS_PATH = System.getProperty("org.kie.server.drools-netty.ext.uds.path");
+    private static final int NETTY_MAX_FRAME_LENGTH = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.frame.max", "1048576"));
+    private static final int NETTY_BATCH_STREAMS_MAX = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.batch.streams.max", "16"));
+    private static final long NETTY_BATCH_STREAMS_BYTES = Long.parseLong(System.getProperty("org.kie.server.drools-netty.ext.batch.streams.bytes", "67108864"));
+    private static final String NETTY_ALLOCATOR = System.getProperty("org.kie.server.drools-netty.ext.allocator", "pooled");
+    private static final boolean NETTY_EPOLL = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.epoll", "false"));
+    private static final int NETTY_ACCEPTORS = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.acceptors", "1"));
+    private static final int NETTY_BOSS_THREADS = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.boss.threads", "0"));
+    private static final int NETTY_WORKER_THREADS = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.worker.threads", "0"));
+    private static final boolean NETTY_TCP_NODELAY = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.tcp.nodelay", "true"));
+    private static final int NETTY_SO_RCVBUF = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.so.rcvbuf", "0"));
+    private static final int NETTY_SO_SNDBUF = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.so.sndbuf", "0"));
+    private static final int NETTY_WRITE_BUFFER_HIGH = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.write.buffer.high", "0"));
+    private static final int NETTY_WRITE_BUFFER_LOW = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.write.buffer.low", "0"));
+    // Netty's defaults, used when a mark is not configured
+    private static final int DEFAULT_WRITE_BUFFER_HIGH = 64 * 1024;
+    private static final int DEFAULT_WRITE_BUFFER_LOW = 32 * 1024;
+    private static final boolean NETTY_COMPRESSION = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.compression", "false"));
+    private static final int NETTY_COMPRESSION_THRESHOLD = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.compression.threshold", 
+                                                                                               String.valueOf(FrameCompressor.DEFAULT_THRESHOLD)));
+    private static final int NETTY_INFLIGHT_CHANNEL = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.inflight.channel", "1024"));
+    private static final int NETTY_INFLIGHT_CONTAINER = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.inflight.container", "4096"));
+    private static final boolean NETTY_INFLIGHT_REJECT = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.inflight.reject", "false"));
+    private static final int NETTY_PUSH_QUEUE_SIZE = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.push.queue.size", "1024"));
+    private static final String NETTY_CAPTURE_DIR = System.getProperty("org.kie.server.drools-netty.ext.capture.dir");
+    private static final int NETTY_CAPTURE_FILE_SIZE = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.capture.file.size", "67108864"));
+    private static final int NETTY_CAPTURE_FILES = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.capture.files", "16"));
     
     private RulesExecutionService rulesExecutionService;
     
-    private EventLoopGroup group;
+    private EventLoopGroup bossGroup;
     
-    private Map<String, Marshaller> marshallers = new HashMap<>();
+    private EventLoopGroup workerGroup;
+    
+    private EventLoopGroup domainSocketGroup;
+    
+    private EventExecutorGroup eventExecutorGroup;
+    
+    private ExecutorLanes lanes;
+    
+    private CommandCoalescer coalescer;
+    
+    private CaptureWriter captureWriter;
+    
+    private MarshallerRegistry marshallerRegistry = new MarshallerRegistry(this::buildVersion);
+    
+    private SubscriptionRegistry subscriptionRegistry = new SubscriptionRegistry();
+    
+    private AllocationMetrics allocationMetrics = new AllocationMetrics();
+    
+    private PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    
+    private AdmissionControl admission;
     
     @Override
     public boolean isActive() {
@@ -72,15 +137,44 @@ public class NettyKieServerExtension implements KieServerExtension {
         }
         if (rulesExecutionService != null) {
             try {
-                group = new NioEventLoopGroup();
+                boolean epoll = useEpoll();
+                int acceptors = epoll ? Math.max(1, NETTY_ACCEPTORS) : 1;
+                int bossThreads = NETTY_BOSS_THREADS > 0 ? NETTY_BOSS_THREADS : acceptors;
+                bossGroup = epoll ? new EpollEventLoopGroup(bossThreads) : new NioEventLoopGroup(bossThreads);
+                workerGroup = epoll ? new EpollEventLoopGroup(NETTY_WORKER_THREADS) : new NioEventLoopGroup(NETTY_WORKER_THREADS);
+                ByteBufAllocator allocator = setupAllocator();
+                lanes = setupExecutorLanes(registry);
+                eventExecutorGroup = lanes == null ? setupEventExecutorGroup() : null;
+                coalescer = setupCoalescer(registry);
+                captureWriter = setupCaptureWriter();
+                admission = new AdmissionControl(NETTY_INFLIGHT_CHANNEL, NETTY_INFLIGHT_CONTAINER, NETTY_INFLIGHT_REJECT, registry);
+                NettyServerInitializer initializer = new NettyServerInitializer(registry, marshallerRegistry, capabilities(), rulesExecutionService, eventExecutorGroup, 
+                                                                                lanes, coalescer, allocationMetrics, pipelineMetrics, captureWriter, admission, subscriptionRegistry, 
+                                                                                NETTY_MAX_FRAME_LENGTH, NETTY_BATCH_STREAMS_MAX, NETTY_BATCH_STREAMS_BYTES, 
+                                                                                NETTY_COMPRESSION_THRESHOLD, NETTY_PUSH_QUEUE_SIZE);
+                if (pipelineMetrics.isEnabled()) {
+                    pipelineMetrics.registerMBeans(ManagementFactory.getPlatformMBeanServer());
+                }
                 ServerBootstrap b = new ServerBootstrap();  
-                b.group(group)               
-                .channel(NioServerSocketChannel.class)     
+                b.group(bossGroup, workerGroup)               
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)     
                 .localAddress(new InetSocketAddress(NETTY_HOST, NETTY_PORT))
-                .childHandler(new NettyServerInitializer(registry, marshallers, rulesExecutionService, setupEventExecutorGroup()));
-                ChannelFuture f = b.bind().sync();
-                if (f.isSuccess()) {
-                    logger.info("Netty Server initialized and listening on {}:{}", NETTY_HOST, NETTY_PORT);
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childHandler(initializer);
+                setupChildOptions(b);
+                if (acceptors > 1) {
+                    // every acceptor binds its own socket to the same port, the kernel spreads connections over them
+                    b.option(EpollChannelOption.SO_REUSEPORT, true);
+                }
+                for (int i = 0; i < acceptors; i++) {
+                    ChannelFuture f = b.bind().sync();
+                    if (f.isSuccess()) {
+                        logger.info("Netty Server initialized and listening on {}:{} ({} transport)", NETTY_HOST, NETTY_PORT, epoll ? "epoll" : "nio");
+                    }
+                }
+                if (NETTY_UDS_PATH != null) {
+                    bindDomainSocket(initializer, allocator, epoll);
                 }
             } catch (Exception e) {
                 logger.error("Error starting up Netty Server", e);
@@ -91,14 +185,36 @@ public class NettyKieServerExtension implements KieServerExtension {
 
     @Override
     public void destroy(KieServerImpl kieServer, KieServerRegistry registry) {
-        group.shutdownGracefully().syncUninterruptibly();
+        bossGroup.shutdownGracefully().syncUninterruptibly();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
+        if (domainSocketGroup != null && domainSocketGroup != workerGroup) {
+            domainSocketGroup.shutdownGracefully().syncUninterruptibly();
+        }
+        if (eventExecutorGroup != null) {
+            eventExecutorGroup.shutdownGracefully();
+        }
+        if (lanes != null) {
+            lanes.shutdown();
+        }
+        if (coalescer != null) {
+            coalescer.shutdown();
+        }
+        if (captureWriter != null) {
+            captureWriter.close();
+        }
+        marshallerRegistry.shutdown();
+        pipelineMetrics.unregisterMBeans();
     }
 
     @Override
     public void createContainer(String id, KieContainerInstance kieContainerInstance, Map<String, Object> parameters) {
-        KieModuleMetaDataImpl metaData = new KieModuleMetaDataImpl(kieContainerInstance, DependencyFilter.COMPILE_FILTER);
+        if (marshallerRegistry.getVersion(id) != null) {
+            // the container is being recreated, requests keep using the current marshaller until the new one is built
+            marshallerRegistry.rebuild(id, kieContainerInstance);
+            return;
+        }
         try {
-            marshallers.put(id, initializeMarshaller(metaData.getProtoFiles(), metaData.getMarshallers()));
+            marshallerRegistry.create(id, kieContainerInstance);
         } catch (Throwable e) {
             logger.error("Unexpected error when initializing marshaller for container {}", id, e);
         }
@@ -106,7 +222,28 @@ public class NettyKieServerExtension implements KieServerExtension {
 
     @Override
     public void disposeContainer(String id, KieContainerInstance kieContainerInstance, Map<String, Object> parameters) {
-        
+        subscriptionRegistry.disposeContainer(id);
+        marshallerRegistry.dispose(id);
+        pipelineMetrics.disposeContainer(id);
+        if (lanes != null) {
+            lanes.disposeContainer(id);
+        }
+        if (coalescer != null) {
+            coalescer.disposeContainer(id);
+        }
+        if (admission != null) {
+            admission.disposeContainer(id);
+        }
+    }
+    
+    private MarshallerRegistry.Version buildVersion(String id, KieContainerInstance kieContainerInstance) throws Exception {
+        ReleaseId releaseId = kieContainerInstance.getKieContainer().getReleaseId();
+        KieModuleMetaDataImpl metaData = new KieModuleMetaDataImpl(kieContainerInstance, DependencyFilter.COMPILE_FILTER);
+        Map<String, String> protoFiles = metaData.getProtoFiles();
+        Marshaller marshaller = initializeMarshaller(protoFiles, metaData.getMarshallers());
+        ContainerSchema schema = marshaller instanceof ProtoStreamMarshaller 
+                ? new ContainerSchema(id, protoFiles, ((ProtoStreamMarshaller) marshaller).getTypeIdTable().getTypeNames()) : null;
+        return new MarshallerRegistry.Version(releaseId, marshaller, schema);
     }
 
     @Override
@@ -126,7 +263,23 @@ public class NettyKieServerExtension implements KieServerExtension {
 
     @Override
     public List<Object> getServices() {
-        return Collections.emptyList();
+        List<Object> services = new ArrayList<>();
+        services.add(allocationMetrics);
+        services.add(pipelineMetrics);
+        services.add(subscriptionRegistry);
+        if (admission != null) {
+            services.add(admission);
+        }
+        if (lanes != null) {
+            services.add(lanes);
+        }
+        if (coalescer != null) {
+            services.add(coalescer);
+        }
+        if (captureWriter != null) {
+            services.add(captureWriter);
+        }
+        return services;
     }
 
     @Override
@@ -140,7 +293,143 @@ public class NettyKieServerExtension implements KieServerExtension {
     }
     
     public Marshaller getMarshaller(String containerId) {
-        return marshallers.get(containerId);
+        return marshallerRegistry.getMarshaller(containerId);
+    }
+    
+    /**
+     * @return the type ids used by the compact wire format for the container, or null if the container has no marshaller
+     */
+    public TypeIdTable getTypeIdTable(String containerId) {
+        Marshaller marshaller = marshallerRegistry.getMarshaller(containerId);
+        return marshaller instanceof ProtoStreamMarshaller ? ((ProtoStreamMarshaller) marshaller).getTypeIdTable() : null;
+    }
+    
+    /**
+     * @return the schemas of the container as sent to clients, or null if the container has no protostream marshaller
+     */
+    public ContainerSchema getContainerSchema(String containerId) {
+        return marshallerRegistry.getSchema(containerId);
+    }
+    
+    /**
+     * @return the optional capabilities offered to clients in the handshake
+     */
+    private int capabilities() {
+        int capabilities = Handshake.CAPABILITY_PIPELINING | Handshake.CAPABILITY_COMPACT;
+        if (NETTY_COMPRESSION) {
+            capabilities |= Handshake.CAPABILITY_COMPRESSION;
+        }
+        return capabilities;
+    }
+    
+    private boolean useEpoll() {
+        if (NETTY_EPOLL && !Epoll.isAvailable()) {
+            logger.warn("Native epoll transport not available, falling back to NIO", Epoll.unavailabilityCause());
+            return false;
+        }
+        return NETTY_EPOLL;
+    }
+    
+    /**
+     * Additional listener on a Unix domain socket for clients on the same host, sharing the
+     * pipeline of the TCP listener. Requires the native epoll transport.
+     */
+    private void bindDomainSocket(NettyServerInitializer initializer, ByteBufAllocator allocator, boolean epoll) throws InterruptedException {
+        if (!Epoll.isAvailable()) {
+            logger.warn("Native epoll transport not available, not listening on {}", NETTY_UDS_PATH, Epoll.unavailabilityCause());
+            return;
+        }
+        File socketFile = new File(NETTY_UDS_PATH);
+        if (socketFile.exists() && !socketFile.delete()) {
+            logger.warn("Unable to delete stale domain socket {}", NETTY_UDS_PATH);
+        }
+        domainSocketGroup = epoll ? workerGroup : new EpollEventLoopGroup(NETTY_WORKER_THREADS);
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(epoll ? bossGroup : domainSocketGroup, domainSocketGroup)
+        .channel(EpollServerDomainSocketChannel.class)
+        .localAddress(new DomainSocketAddress(socketFile))
+        .option(ChannelOption.ALLOCATOR, allocator)
+        .childOption(ChannelOption.ALLOCATOR, allocator)
+        .childHandler(initializer);
+        ChannelFuture f = b.bind().sync();
+        if (f.isSuccess()) {
+            logger.info("Netty Server listening on domain socket {}", NETTY_UDS_PATH);
+        }
+    }
+    
+    private void setupChildOptions(ServerBootstrap b) {
+        b.childOption(ChannelOption.TCP_NODELAY, NETTY_TCP_NODELAY);
+        if (NETTY_SO_RCVBUF > 0) {
+            b.childOption(ChannelOption.SO_RCVBUF, NETTY_SO_RCVBUF);
+        }
+        if (NETTY_SO_SNDBUF > 0) {
+            b.childOption(ChannelOption.SO_SNDBUF, NETTY_SO_SNDBUF);
+        }
+        setupWriteBufferWaterMarks(b);
+    }
+    
+    /**
+     * Netty rejects a high water mark below the low one and the other way around, checking each mark against the 
+     * current value of the other as it is set, so the marks are checked together here, and set in an order in which
+     * neither is checked against a default it would not fit.
+     */
+    private void setupWriteBufferWaterMarks(ServerBootstrap b) {
+        int high = NETTY_WRITE_BUFFER_HIGH > 0 ? NETTY_WRITE_BUFFER_HIGH : DEFAULT_WRITE_BUFFER_HIGH;
+        int low = NETTY_WRITE_BUFFER_LOW > 0 ? NETTY_WRITE_BUFFER_LOW : DEFAULT_WRITE_BUFFER_LOW;
+        if (low > high) {
+            throw new IllegalArgumentException("Write buffer low water mark " + low + " is above the high water mark " + high);
+        }
+        // options are applied in the order they are added
+        if (high < DEFAULT_WRITE_BUFFER_LOW) {
+            // lowering, the low mark goes below the new high mark first
+            b.childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, low);
+            b.childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, high);
+        } else {
+            // raising, the high mark goes above the new low mark first
+            if (NETTY_WRITE_BUFFER_HIGH > 0) {
+                b.childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, high);
+            }
+            if (NETTY_WRITE_BUFFER_LOW > 0) {
+                b.childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, low);
+            }
+        }
+    }
+    
+    private ByteBufAllocator setupAllocator() {
+        if ("unpooled".equalsIgnoreCase(NETTY_ALLOCATOR)) {
+            return UnpooledByteBufAllocator.DEFAULT;
+        } else {
+            return PooledByteBufAllocator.DEFAULT;
+        }
+    }
+    
+    private ExecutorLanes setupExecutorLanes(KieServerRegistry registry) {
+        boolean useLanes = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.lanes", "false"));
+        if (useLanes) {
+            int queueSize = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.lanes.queue.size", "1024"));
+            int maxLanes = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.lanes.max", "256"));
+            return new ExecutorLanes(queueSize, maxLanes, registry);
+        } else {
+            return null;
+        }
+    }
+    
+    private CommandCoalescer setupCoalescer(KieServerRegistry registry) {
+        boolean coalesce = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.coalesce", "false"));
+        if (coalesce) {
+            long windowMicros = Long.parseLong(System.getProperty("org.kie.server.drools-netty.ext.coalesce.window.micros", "1000"));
+            int maxCommands = Integer.parseInt(System.getProperty("org.kie.server.drools-netty.ext.coalesce.max.commands", "1000"));
+            return new CommandCoalescer(windowMicros, maxCommands, registry, rulesExecutionService, lanes, eventExecutorGroup);
+        } else {
+            return null;
+        }
+    }
+    
+    private CaptureWriter setupCaptureWriter() throws IOException {
+        if (NETTY_CAPTURE_DIR == null) {
+            return null;
+        }
+        return new CaptureWriter(Paths.get(NETTY_CAPTURE_DIR), NETTY_CAPTURE_FILE_SIZE, NETTY_CAPTURE_FILES);
     }
     
     private EventExecutorGroup setupEventExecutorGroup() {
@@ -167,6 +456,12 @@ public class NettyKieServerExtension implements KieServerExtension {
         for (Class<?> clazz : protomarshallers) {
             ctx.registerMarshaller((BaseMarshaller) clazz.newInstance());
         }
+        // the type ids are built once all marshallers are registered
+        TypeIdTable typeIds = new TypeIdTable(ctx);
+        marshaller.setTypeIdTable(typeIds);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Type ids for compact marshalling : {}", typeIds.getEntries());
+        }
         return marshaller;
     }
 }
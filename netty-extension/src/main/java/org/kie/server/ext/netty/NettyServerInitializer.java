@@ -1,45 +1,105 @@
 package org.kie.server.ext.netty;
 
-import java.util.Map;
-
-import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.ext.netty.codec.ControlFrameEncoder;
+import org.kie.server.ext.netty.codec.FrameCompressor;
+import org.kie.server.ext.netty.codec.FrameDecompressor;
+import org.kie.server.ext.netty.codec.Handshake;
 import org.kie.server.services.api.KieServerRegistry;
 import org.kie.server.services.drools.RulesExecutionService;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.util.concurrent.EventExecutorGroup;
 
-public class NettyServerInitializer extends ChannelInitializer<SocketChannel> {
+public class NettyServerInitializer extends ChannelInitializer<Channel> {
     
     private EventExecutorGroup eventExecutorGroup;
     
-    Map<String, Marshaller> marshallers;
+    private MarshallerRegistry marshallerRegistry;
+    
+    private SubscriptionRegistry subscriptionRegistry;
+    
+    private int capabilities;
     
     private KieServerRegistry registry;
     
     private RulesExecutionService rulesExecutionService;
     
-    public NettyServerInitializer(KieServerRegistry registry, Map<String, Marshaller> marshallers, 
-                                  RulesExecutionService rulesExecutionService, EventExecutorGroup eventExecutorGroup) {
+    private ExecutorLanes lanes;
+    
+    private CommandCoalescer coalescer;
+    
+    private AllocationMetrics allocationMetrics;
+    
+    private PipelineMetrics pipelineMetrics;
+    
+    private ChannelMetricsHandler channelMetricsHandler;
+    
+    private CaptureWriter captureWriter;
+    
+    private AdmissionControl admission;
+    
+    private int maxFrameLength;
+    
+    private int maxStreamedBatches;
+    
+    private long maxStreamedBytes;
+    
+    private int compressionThreshold;
+    
+    private int pushQueueSize;
+    
+    public NettyServerInitializer(KieServerRegistry registry, MarshallerRegistry marshallerRegistry, 
+                                  int capabilities, RulesExecutionService rulesExecutionService, EventExecutorGroup eventExecutorGroup,
+                                  ExecutorLanes lanes, CommandCoalescer coalescer, AllocationMetrics allocationMetrics, 
+                                  PipelineMetrics pipelineMetrics, CaptureWriter captureWriter, AdmissionControl admission,
+                                  SubscriptionRegistry subscriptionRegistry, int maxFrameLength, int maxStreamedBatches, 
+                                  long maxStreamedBytes, int compressionThreshold, int pushQueueSize) {
         super();
         this.eventExecutorGroup = eventExecutorGroup;
-        this.marshallers = marshallers;
+        this.lanes = lanes;
+        this.coalescer = coalescer;
+        this.allocationMetrics = allocationMetrics;
+        this.pipelineMetrics = pipelineMetrics;
+        this.channelMetricsHandler = pipelineMetrics.isEnabled() ? new ChannelMetricsHandler(pipelineMetrics) : null;
+        this.captureWriter = captureWriter;
+        this.admission = admission;
+        this.maxFrameLength = maxFrameLength;
+        this.maxStreamedBatches = maxStreamedBatches;
+        this.maxStreamedBytes = maxStreamedBytes;
+        this.compressionThreshold = compressionThreshold;
+        this.subscriptionRegistry = subscriptionRegistry;
+        this.pushQueueSize = pushQueueSize;
+        this.marshallerRegistry = marshallerRegistry;
+        this.capabilities = capabilities;
         this.registry = registry;
         this.rulesExecutionService = rulesExecutionService;
     }
 
     @Override
-    protected void initChannel(SocketChannel ch) throws Exception {
+    protected void initChannel(Channel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
-        pipeline.addLast(new LengthFieldBasedFrameDecoder(1048576, 0, 4, 0, 4));
+        if (channelMetricsHandler != null) {
+            pipeline.addLast(channelMetricsHandler);
+        }
+        pipeline.addLast(new FrameDecoder(maxFrameLength, pipelineMetrics));
         pipeline.addLast(new LengthFieldPrepender(4));
-        pipeline.addLast(new ExecutionResultsEncoder(marshallers));
-        pipeline.addLast(new CommandDecoder(marshallers));
-        pipeline.addLast(eventExecutorGroup, new ContainerCommandHandler(registry, rulesExecutionService));
+        if ((capabilities & Handshake.CAPABILITY_COMPRESSION) != 0) {
+            pipeline.addLast(new FrameDecompressor());
+            pipeline.addLast(new FrameCompressor(compressionThreshold));
+        }
+        if (captureWriter != null) {
+            pipeline.addLast(new CaptureHandler(captureWriter));
+        }
+        pipeline.addLast(new ControlFrameEncoder());
+        pipeline.addLast(new ExecutionResultsEncoder(marshallerRegistry, allocationMetrics));
+        pipeline.addLast(new CommandDecoder(marshallerRegistry, allocationMetrics, pipelineMetrics, maxStreamedBatches, maxStreamedBytes));
+        pipeline.addLast(new HandshakeHandler(marshallerRegistry, capabilities));
+        pipeline.addLast(new SubscriptionHandler(registry, marshallerRegistry, subscriptionRegistry, pushQueueSize));
+        pipeline.addLast(new ContainerCommandHandler(registry, marshallerRegistry, rulesExecutionService, eventExecutorGroup, lanes, coalescer, 
+                                                     admission));
     }
     
     
@@ -0,0 +1,226 @@
+package org.kie.server.ext.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.kie.api.command.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Time spent by requests in each stage of the pipeline, per container and opcode, with the connections
+ * and traffic of the server. Recording costs a few <code>System.nanoTime()</code> calls and atomic adds per
+ * request, and can be disabled with <code>org.kie.server.drools-netty.ext.metrics.pipeline=false</code>.
+ * <p>
+ * Once registered, the metrics are published as MXBeans, see {@link PipelineMetricsMXBean} and {@link RequestMetricsMXBean}.
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+
+    public static final String DOMAIN = "org.kie.server.ext.netty";
+
+    private static final boolean enabled = Boolean.parseBoolean(System.getProperty("org.kie.server.drools-netty.ext.metrics.pipeline", "true"));
+
+    // InsertObjectCommand is published as InsertObject, BatchExecutionCommandImpl as BatchExecution
+    private static final ClassValue<String> OPCODES = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            String name = type.getSimpleName();
+            if (name.endsWith("Impl")) {
+                name = name.substring(0, name.length() - 4);
+            }
+            if (name.endsWith("Command") && name.length() > 7) {
+                name = name.substring(0, name.length() - 7);
+            }
+            return name;
+        }
+    };
+
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    private final LongAdder connections = new LongAdder();
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final LatencyHistogram frameDecode = new LatencyHistogram();
+
+    private final ConcurrentMap<String, ConcurrentMap<String, RequestMetrics>> containers = new ConcurrentHashMap<>();
+
+    private volatile MBeanServer mBeanServer;
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the metrics of the requests of the command's opcode to the container, created and registered on first use
+     */
+    public RequestMetrics getRequestMetrics(String containerId, Command<?> command) {
+        String opcode = command == null ? "Unknown" : OPCODES.get(command.getClass());
+        ConcurrentMap<String, RequestMetrics> opcodes = containers.get(containerId);
+        if (opcodes == null) {
+            opcodes = containers.computeIfAbsent(containerId, k -> new ConcurrentHashMap<>());
+        }
+        RequestMetrics metrics = opcodes.get(opcode);
+        if (metrics == null) {
+            RequestMetrics created = new RequestMetrics(containerId, opcode);
+            metrics = opcodes.putIfAbsent(opcode, created);
+            if (metrics == null) {
+                metrics = created;
+                register(metrics, name(created));
+            }
+        }
+        return metrics;
+    }
+
+    public List<RequestMetrics> getRequestMetrics() {
+        List<RequestMetrics> metrics = new ArrayList<>();
+        for (ConcurrentMap<String, RequestMetrics> opcodes : containers.values()) {
+            metrics.addAll(opcodes.values());
+        }
+        return metrics;
+    }
+
+    public void disposeContainer(String containerId) {
+        ConcurrentMap<String, RequestMetrics> opcodes = containers.remove(containerId);
+        if (opcodes != null) {
+            for (RequestMetrics metrics : opcodes.values()) {
+                unregister(name(metrics));
+            }
+        }
+    }
+
+    /**
+     * Publishes these metrics, and the metrics of every container and opcode as they are created, to the given server.
+     */
+    public void registerMBeans(MBeanServer server) {
+        mBeanServer = server;
+        register(this, name());
+        for (RequestMetrics metrics : getRequestMetrics()) {
+            register(metrics, name(metrics));
+        }
+    }
+
+    public void unregisterMBeans() {
+        if (mBeanServer == null) {
+            return;
+        }
+        unregister(name());
+        for (RequestMetrics metrics : getRequestMetrics()) {
+            unregister(name(metrics));
+        }
+        mBeanServer = null;
+    }
+
+    void connected() {
+        activeConnections.incrementAndGet();
+        connections.increment();
+    }
+
+    void disconnected() {
+        activeConnections.decrementAndGet();
+    }
+
+    void read(int bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void written(int bytes) {
+        bytesOut.add(bytes);
+    }
+
+    void frameDecoded(long start) {
+        frameDecode.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public LatencySnapshot getFrameDecode() {
+        return frameDecode.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        connections.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        frameDecode.reset();
+        for (RequestMetrics metrics : getRequestMetrics()) {
+            metrics.reset();
+        }
+    }
+
+    private void register(Object mBean, ObjectName name) {
+        MBeanServer server = mBeanServer;
+        if (server == null) {
+            return;
+        }
+        try {
+            server.registerMBean(mBean, name);
+        } catch (Exception e) {
+            logger.warn("Unable to register MBean {}", name, e);
+        }
+    }
+
+    private void unregister(ObjectName name) {
+        MBeanServer server = mBeanServer;
+        if (server == null) {
+            return;
+        }
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to unregister MBean {}", name, e);
+        }
+    }
+
+    private static ObjectName name() {
+        return objectName(DOMAIN + ":type=Pipeline");
+    }
+
+    private static ObjectName name(RequestMetrics metrics) {
+        return objectName(DOMAIN + ":type=Pipeline,container=" + ObjectName.quote(metrics.getContainerId())
+                          + ",opcode=" + metrics.getOpcode());
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(name, e);
+        }
+    }
+
+}
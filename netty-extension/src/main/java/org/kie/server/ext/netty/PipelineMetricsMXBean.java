@@ -0,0 +1,35 @@
+package org.kie.server.ext.netty;
+
+/**
+ * Connections and traffic of the Netty server, registered as <code>org.kie.server.ext.netty:type=Pipeline</code>.
+ * The time spent in each stage by requests is published per container and opcode, see {@link RequestMetricsMXBean}.
+ */
+public interface PipelineMetricsMXBean {
+
+    boolean isEnabled();
+
+    int getActiveConnections();
+
+    long getConnections();
+
+    /**
+     * @return the bytes read from the sockets
+     */
+    long getBytesIn();
+
+    /**
+     * @return the bytes written to the sockets
+     */
+    long getBytesOut();
+
+    /**
+     * @return extraction of frames from the bytes read
+     */
+    LatencySnapshot getFrameDecode();
+
+    /**
+     * Resets the traffic and the metrics of all containers, active connections are kept.
+     */
+    void reset();
+
+}
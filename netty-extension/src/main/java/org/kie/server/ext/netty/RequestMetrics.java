@@ -0,0 +1,124 @@
+package org.kie.server.ext.netty;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class RequestMetrics implements RequestMetricsMXBean {
+
+    private final String containerId;
+
+    private final String opcode;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    final LatencyHistogram unmarshal = new LatencyHistogram();
+
+    final LatencyHistogram queue = new LatencyHistogram();
+
+    final LatencyHistogram execute = new LatencyHistogram();
+
+    final LatencyHistogram marshal = new LatencyHistogram();
+
+    final LatencyHistogram flush = new LatencyHistogram();
+
+    public RequestMetrics(String containerId, String opcode) {
+        this.containerId = containerId;
+        this.opcode = opcode;
+    }
+
+    /**
+     * Records the decoding of a request frame.
+     *
+     * @param start <code>System.nanoTime()</code> when decoding started
+     * @return the end of decoding
+     */
+    long decoded(long start, int bytes) {
+        long now = System.nanoTime();
+        unmarshal.record(now - start);
+        bytesIn.add(bytes);
+        return now;
+    }
+
+    /**
+     * Records the encoding of a response frame.
+     *
+     * @param start <code>System.nanoTime()</code> when encoding started
+     * @return the end of encoding
+     */
+    long encoded(long start, int bytes) {
+        long now = System.nanoTime();
+        marshal.record(now - start);
+        bytesOut.add(bytes);
+        return now;
+    }
+
+    void received() {
+        requests.increment();
+    }
+
+    @Override
+    public String getContainerId() {
+        return containerId;
+    }
+
+    @Override
+    public String getOpcode() {
+        return opcode;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public LatencySnapshot getUnmarshal() {
+        return unmarshal.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getQueue() {
+        return queue.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getExecute() {
+        return execute.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getMarshal() {
+        return marshal.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getFlush() {
+        return flush.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        requests.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        unmarshal.reset();
+        queue.reset();
+        execute.reset();
+        marshal.reset();
+        flush.reset();
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.kie.server.ext.netty;
+
+/**
+ * Time spent by the requests of one opcode to one container in each stage of the pipeline,
+ * registered as <code>org.kie.server.ext.netty:type=Pipeline,container=&lt;id&gt;,opcode=&lt;opcode&gt;</code>.
+ */
+public interface RequestMetricsMXBean {
+
+    String getContainerId();
+
+    String getOpcode();
+
+    long getRequests();
+
+    /**
+     * @return the bytes of the request frames, before decompression
+     */
+    long getBytesIn();
+
+    /**
+     * @return the bytes of the response frames, before compression
+     */
+    long getBytesOut();
+
+    /**
+     * @return decoding and unmarshalling of the request frames, every chunk of a streamed batch counting as one
+     */
+    LatencySnapshot getUnmarshal();
+
+    /**
+     * @return wait from the end of decoding to the start of execution
+     */
+    LatencySnapshot getQueue();
+
+    /**
+     * @return <code>rulesExecutionService.call</code>, shared by all requests of a coalesced batch
+     */
+    LatencySnapshot getExecute();
+
+    /**
+     * @return marshalling and encoding of the responses
+     */
+    LatencySnapshot getMarshal();
+
+    /**
+     * @return wait from the end of encoding until the response is written to the socket
+     */
+    LatencySnapshot getFlush();
+
+    void reset();
+
+}
@@ -0,0 +1,55 @@
+package org.kie.server.ext.netty;
+
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+
+/**
+ * Timestamps of a request through the pipeline, attached to its command and handed over to its
+ * response. Each timestamp is written by the thread that handles the request at that stage.
+ */
+final class RequestTimer {
+
+    private final RequestMetrics metrics;
+
+    private final long decoded;
+
+    private long started;
+
+    private long encoded;
+
+    RequestTimer(RequestMetrics metrics, long decoded) {
+        this.metrics = metrics;
+        this.decoded = decoded;
+    }
+
+    /**
+     * @return the timer of the command, or null if pipeline metrics are disabled
+     */
+    static RequestTimer of(ContainerCommand cc) {
+        Object attachment = cc.getAttachment();
+        return attachment instanceof RequestTimer ? (RequestTimer) attachment : null;
+    }
+
+    static RequestTimer of(ContainerExecutionResults results) {
+        Object attachment = results.getAttachment();
+        return attachment instanceof RequestTimer ? (RequestTimer) attachment : null;
+    }
+
+    void started() {
+        started = System.nanoTime();
+        metrics.queue.record(started - decoded);
+    }
+
+    void executed() {
+        metrics.execute.record(System.nanoTime() - started);
+    }
+
+    void encoded(long start, int bytes) {
+        encoded = metrics.encoded(start, bytes);
+    }
+
+    void flushed() {
+        metrics.flush.record(System.nanoTime() - encoded);
+    }
+
+}
@@ -0,0 +1,171 @@
+package org.kie.server.ext.netty;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.ext.netty.codec.Codec;
+import org.kie.server.ext.netty.codec.PushMessage;
+import org.kie.server.ext.netty.codec.SubscribeRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * A subscription of a connection to the outputs of a session. Outputs are written as they come while the
+ * channel is writable, and queued otherwise, up to a limit above which they are dropped, so that a slow
+ * client neither blocks the rules nor grows the heap.
+ * <p>
+ * An output is encoded by the thread running the rules, while the session is not changing it, and handed
+ * to the channel's event loop as a frame. The limit counts the outputs handed to the event loop and not
+ * written yet, so an output pushed past it is dropped before it is encoded. An output that cannot be encoded
+ * is logged and dropped as well, so that it neither fails the rules nor keeps it from other subscribers.
+ */
+public class Subscriber {
+    
+    private static final Logger logger = LoggerFactory.getLogger(Subscriber.class);
+    
+    private final ChannelHandlerContext ctx;
+    
+    private final SubscribeRequest request;
+    
+    private final Marshaller marshaller;
+    
+    private final int maxQueued;
+    
+    // guarded by itself, outputs may be pushed from several threads
+    private final Codec codec = new Codec();
+    
+    // only accessed from the channel's event loop
+    private final Deque<ByteBuf> queue = new ArrayDeque<>();
+    
+    // only accessed from the channel's event loop
+    private boolean closed;
+    
+    // outputs handed to the event loop, and not written or released yet
+    private final AtomicInteger queued = new AtomicInteger();
+    
+    private final AtomicLong pushed = new AtomicLong();
+    
+    private final AtomicLong dropped = new AtomicLong();
+    
+    public Subscriber(ChannelHandlerContext ctx, SubscribeRequest request, Marshaller marshaller, int maxQueued) {
+        this.ctx = ctx;
+        this.request = request;
+        this.marshaller = marshaller;
+        this.maxQueued = maxQueued;
+    }
+    
+    /**
+     * Called from the thread running the rules.
+     */
+    public void push(Object object) {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        ByteBuf frame;
+        try {
+            frame = encode(object);
+        } catch (RuntimeException e) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            logger.warn("Dropping output {} of subscription {} to container {}, it could not be encoded", 
+                        object == null ? null : object.getClass().getName(), request.getRequestId(), request.getContainerId(), e);
+            return;
+        } catch (Error e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+        try {
+            ctx.executor().execute(() -> offer(frame));
+        } catch (RejectedExecutionException e) {
+            // the event loop is shutting down
+            release(frame);
+        }
+    }
+    
+    private ByteBuf encode(Object object) {
+        ByteBuf frame = ctx.alloc().ioBuffer();
+        try {
+            synchronized (codec) {
+                codec.setMarshaller(marshaller);
+                codec.encodePushMessage(new PushMessage(request.getRequestId(), request.getFlags(), request.getContainerId(), object), frame);
+            }
+            return frame;
+        } catch (RuntimeException | Error e) {
+            frame.release();
+            throw e;
+        }
+    }
+    
+    private void offer(ByteBuf frame) {
+        if (closed || !ctx.channel().isActive()) {
+            release(frame);
+            return;
+        }
+        if (queue.isEmpty() && ctx.channel().isWritable()) {
+            write(frame);
+            ctx.flush();
+        } else {
+            queue.add(frame);
+        }
+    }
+    
+    /**
+     * Writes the queued outputs while the channel is writable. Called from the channel's event loop.
+     */
+    public void drain() {
+        boolean written = false;
+        while (!queue.isEmpty() && ctx.channel().isWritable()) {
+            write(queue.poll());
+            written = true;
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+    
+    /**
+     * Releases the queued outputs once the subscription ended. Called from the channel's event loop.
+     */
+    public void close() {
+        closed = true;
+        for (ByteBuf frame = queue.poll(); frame != null; frame = queue.poll()) {
+            release(frame);
+        }
+    }
+    
+    private void write(ByteBuf frame) {
+        queued.decrementAndGet();
+        ctx.write(frame);
+        pushed.incrementAndGet();
+    }
+    
+    private void release(ByteBuf frame) {
+        queued.decrementAndGet();
+        frame.release();
+    }
+    
+    public SubscribeRequest getRequest() {
+        return request;
+    }
+    
+    public long getPushed() {
+        return pushed.get();
+    }
+    
+    public long getDropped() {
+        return dropped.get();
+    }
+    
+}
@@ -0,0 +1,121 @@
+package org.kie.server.ext.netty;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.drools.core.runtime.impl.ExecutionResultImpl;
+import org.kie.api.runtime.CommandExecutor;
+import org.kie.api.runtime.KieSession;
+import org.kie.server.api.marshalling.Marshaller;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+import org.kie.server.ext.netty.codec.SubscribeRequest;
+import org.kie.server.ext.netty.marshaller.ProtoStreamMarshaller;
+import org.kie.server.services.api.KieServerRegistry;
+import org.kie.server.services.impl.KieContainerInstanceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Handles the {@link SubscribeRequest}s of a connection, and writes the outputs queued by its subscribers
+ * when the channel becomes writable again. Subscriptions end with the connection.
+ */
+public class SubscriptionHandler extends ChannelInboundHandlerAdapter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionHandler.class);
+    
+    private KieServerRegistry registry;
+    
+    private MarshallerRegistry marshallerRegistry;
+    
+    private SubscriptionRegistry subscriptionRegistry;
+    
+    private int maxQueued;
+    
+    // by request id, only accessed from the channel's event loop
+    private final Map<Long, Subscriber> subscribers = new HashMap<>();
+
+    public SubscriptionHandler(KieServerRegistry registry, MarshallerRegistry marshallerRegistry, 
+                               SubscriptionRegistry subscriptionRegistry, int maxQueued) {
+        this.registry = registry;
+        this.marshallerRegistry = marshallerRegistry;
+        this.subscriptionRegistry = subscriptionRegistry;
+        this.maxQueued = maxQueued;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof SubscribeRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        SubscribeRequest request = (SubscribeRequest) msg;
+        try {
+            if (request.isSubscribe()) {
+                subscribe(ctx, request);
+            } else {
+                Subscriber subscriber = subscribers.remove(request.getRequestId());
+                if (subscriber != null) {
+                    subscriptionRegistry.unsubscribe(subscriber);
+                    subscriber.close();
+                }
+            }
+            ctx.writeAndFlush(new ContainerExecutionResults(request.getRequestId(), request.getFlags(), 
+                                                            request.getContainerId(), new ExecutionResultImpl()));
+        } catch (RuntimeException e) {
+            logger.warn("Error handling subscription {} on container {}", request.getRequestId(), request.getContainerId(), e);
+            ctx.writeAndFlush(new ContainerExecutionResults(request.getRequestId(), request.getFlags(), request.getContainerId(), 
+                                                            ContainerExecutionResults.STATUS_ERROR, e.getMessage()));
+        }
+    }
+    
+    private void subscribe(ChannelHandlerContext ctx, SubscribeRequest request) {
+        KieContainerInstanceImpl kci = registry.getContainer(request.getContainerId());
+        if (kci == null) {
+            throw new IllegalArgumentException("Container " + request.getContainerId() + " not found");
+        }
+        CommandExecutor executor = request.getLookup() == null ? kci.getKieContainer().getKieSession()
+                : registry.getKieSessionLookupManager().lookup(request.getLookup(), kci, registry);
+        if (!(executor instanceof KieSession)) {
+            throw new IllegalArgumentException("Session " + request.getLookup() + " is not a stateful session");
+        }
+        Marshaller marshaller = marshallerRegistry.getMarshaller(request.getContainerId());
+        Class<?> insertedType = null;
+        if (request.getKind() == SubscribeRequest.KIND_INSERTED) {
+            if (!(marshaller instanceof ProtoStreamMarshaller)) {
+                throw new IllegalArgumentException("Container " + request.getContainerId() + " has no protobuf types");
+            }
+            insertedType = ((ProtoStreamMarshaller) marshaller).getJavaClass(request.getName());
+        }
+        Subscriber subscriber = new Subscriber(ctx, request, marshaller, maxQueued);
+        Subscriber replaced = subscribers.put(request.getRequestId(), subscriber);
+        if (replaced != null) {
+            subscriptionRegistry.unsubscribe(replaced);
+            replaced.close();
+        }
+        subscriptionRegistry.subscribe((KieSession) executor, insertedType, subscriber);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            for (Subscriber subscriber : subscribers.values()) {
+                subscriber.drain();
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriptionRegistry.unsubscribe(subscriber);
+            subscriber.close();
+        }
+        subscribers.clear();
+        ctx.fireChannelInactive();
+    }
+
+}
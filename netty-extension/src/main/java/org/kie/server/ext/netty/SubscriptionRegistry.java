@@ -0,0 +1,172 @@
+package org.kie.server.ext.netty;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.kie.api.event.rule.DefaultRuleRuntimeEventListener;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.Channel;
+import org.kie.api.runtime.KieSession;
+import org.kie.server.ext.netty.codec.SubscribeRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The subscriptions to session outputs of all connections. A session output is attached once to its session,
+ * as a KIE channel or as an event listener, whatever the number of subscribers, and detached with the last one.
+ * A channel the application registered under the same name keeps receiving the outputs, and is registered
+ * again when the subscriptions end.
+ */
+public class SubscriptionRegistry {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionRegistry.class);
+    
+    private final Map<String, Source> sources = new HashMap<>();
+    
+    public synchronized void subscribe(KieSession session, Class<?> insertedType, Subscriber subscriber) {
+        String key = key(subscriber.getRequest());
+        Source source = sources.get(key);
+        if (source == null) {
+            source = subscriber.getRequest().getKind() == SubscribeRequest.KIND_CHANNEL 
+                    ? new ChannelSource(subscriber.getRequest(), session) 
+                    : new InsertedSource(subscriber.getRequest(), session, insertedType);
+            source.attach();
+            sources.put(key, source);
+            logger.debug("Attached {} to container {}", key, subscriber.getRequest().getContainerId());
+        }
+        source.subscribers.add(subscriber);
+    }
+    
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        String key = key(subscriber.getRequest());
+        Source source = sources.get(key);
+        if (source != null && source.subscribers.remove(subscriber) && source.subscribers.isEmpty()) {
+            sources.remove(key);
+            source.detach();
+            logger.debug("Detached {} from container {}", key, subscriber.getRequest().getContainerId());
+        }
+    }
+    
+    public synchronized void disposeContainer(String containerId) {
+        for (Iterator<Source> it = sources.values().iterator(); it.hasNext();) {
+            Source source = it.next();
+            if (source.containerId.equals(containerId)) {
+                it.remove();
+                source.detach();
+            }
+        }
+    }
+    
+    public synchronized int getSubscriberCount() {
+        int count = 0;
+        for (Source source : sources.values()) {
+            count += source.subscribers.size();
+        }
+        return count;
+    }
+    
+    private static String key(SubscribeRequest request) {
+        return request.getContainerId() + "|" + request.getLookup() + "|" + request.getKind() + "|" + request.getName();
+    }
+    
+    private abstract static class Source {
+        
+        protected final String containerId;
+        
+        protected final String name;
+        
+        protected final KieSession session;
+        
+        protected final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        
+        Source(SubscribeRequest request, KieSession session) {
+            this.containerId = request.getContainerId();
+            this.name = request.getName();
+            this.session = session;
+        }
+        
+        abstract void attach();
+        
+        abstract void detach();
+        
+        protected void publish(Object object) {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.push(object);
+            }
+        }
+        
+    }
+    
+    private static class ChannelSource extends Source implements Channel {
+        
+        // the channel registered under the same name before the first subscription, if any
+        private Channel chained;
+        
+        ChannelSource(SubscribeRequest request, KieSession session) {
+            super(request, session);
+        }
+        
+        @Override
+        void attach() {
+            chained = session.getChannels().get(name);
+            session.registerChannel(name, this);
+        }
+        
+        @Override
+        void detach() {
+            if (session.getChannels().get(name) != this) {
+                // replaced by the application since
+                return;
+            }
+            if (chained != null) {
+                session.registerChannel(name, chained);
+            } else {
+                session.unregisterChannel(name);
+            }
+        }
+
+        @Override
+        public void send(Object object) {
+            if (chained != null) {
+                chained.send(object);
+            }
+            publish(object);
+        }
+        
+    }
+    
+    private static class InsertedSource extends Source {
+        
+        private final Class<?> type;
+        
+        private final RuleRuntimeEventListener listener = new DefaultRuleRuntimeEventListener() {
+            @Override
+            public void objectInserted(ObjectInsertedEvent event) {
+                if (type.isInstance(event.getObject())) {
+                    publish(event.getObject());
+                }
+            }
+        };
+        
+        InsertedSource(SubscribeRequest request, KieSession session, Class<?> type) {
+            super(request, session);
+            this.type = type;
+        }
+        
+        @Override
+        void attach() {
+            session.addEventListener(listener);
+        }
+        
+        @Override
+        void detach() {
+            session.removeEventListener(listener);
+        }
+        
+    }
+
+}
@@ -0,0 +1,147 @@
+package org.kie.server.ext.netty;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.kie.builder.impl.InternalKieContainer;
+import org.drools.compiler.kproject.ReleaseIdImpl;
+import org.drools.core.command.impl.GenericCommand;
+import org.drools.core.command.runtime.BatchExecutionCommandImpl;
+import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.drools.core.command.runtime.rule.InsertObjectCommand;
+import org.drools.core.runtime.impl.ExecutionResultImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.api.runtime.KieSession;
+import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.ext.netty.codec.ContainerCommand;
+import org.kie.server.ext.netty.codec.ContainerExecutionResults;
+import org.kie.server.services.api.KieContainerInstance;
+import org.kie.server.services.drools.RulesExecutionService;
+import org.kie.server.services.impl.KieContainerInstanceImpl;
+import org.kie.server.services.impl.KieServerRegistryImpl;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+public class CommandCoalescerTest {
+
+    private static final int INSERTS = 50;
+
+    private final KieServerRegistryImpl registry = new KieServerRegistryImpl();
+
+    // objects inserted by the batches run, in the order they ran
+    private final List<Object> applied = new CopyOnWriteArrayList<>();
+
+    // holds the first batch until all inserts are submitted, so that the executor of the session stays busy
+    private final CountDownLatch submitted = new CountDownLatch(1);
+
+    private final RulesExecutionService rulesExecutionService = new RulesExecutionService(registry) {
+        @Override
+        public ExecutionResults call(KieContainerInstance kci, BatchExecutionCommand batch) {
+            try {
+                submitted.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (GenericCommand<?> command : ((BatchExecutionCommandImpl) batch).getCommands()) {
+                applied.add(((InsertObjectCommand) command).getObject());
+            }
+            return new ExecutionResultImpl();
+        }
+    };
+
+    private ExecutorLanes lanes;
+
+    private EventExecutorGroup eventExecutorGroup;
+
+    private CommandCoalescer coalescer;
+
+    @Before
+    public void registerContainer() {
+        KieSession session = (KieSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{KieSession.class},
+                                                                 (proxy, method, args) -> null);
+        ReleaseId releaseId = new ReleaseIdImpl("org.kie", "coalesced", "1.0");
+        InternalKieContainer container = (InternalKieContainer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{InternalKieContainer.class},
+                                                                                       (proxy, method, args) -> {
+            if ("getKieSession".equals(method.getName())) {
+                return session;
+            }
+            return method.getReturnType() == ReleaseId.class ? releaseId : null;
+        });
+        registry.registerContainer("c", new KieContainerInstanceImpl("c", KieContainerStatus.STARTED, container));
+    }
+
+    @After
+    public void shutdown() {
+        if (coalescer != null) {
+            coalescer.shutdown();
+        }
+        if (lanes != null) {
+            lanes.shutdown();
+        }
+        if (eventExecutorGroup != null) {
+            eventExecutorGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void oneWayInsertsThroughAFullLaneAreAppliedInOrder() throws Exception {
+        // a lane queuing a single window, the windows flushed after it are rejected until it drains
+        lanes = new ExecutorLanes(1, 16, registry);
+        coalescer = new CommandCoalescer(TimeUnit.SECONDS.toMicros(1), 1, registry, rulesExecutionService, lanes, null);
+        assertInsertsAppliedInOrder();
+    }
+
+    @Test(timeout = 30000)
+    public void oneWayInsertsThroughAnExecutorGroupAreAppliedInOrder() throws Exception {
+        eventExecutorGroup = new DefaultEventExecutorGroup(4);
+        coalescer = new CommandCoalescer(TimeUnit.SECONDS.toMicros(1), 1, registry, rulesExecutionService, null, eventExecutorGroup);
+        assertInsertsAppliedInOrder();
+    }
+
+    @Test(timeout = 30000)
+    public void requestsRunAloneWaitForTheOpenWindowOfTheirSession() throws Exception {
+        lanes = new ExecutorLanes(16, 16, registry);
+        // a window that is only flushed by the request run alone
+        coalescer = new CommandCoalescer(TimeUnit.SECONDS.toMicros(10), 100, registry, rulesExecutionService, lanes, null);
+        submitted.countDown();
+        CompletableFuture<ContainerExecutionResults> insert = coalescer.submit(new ContainerCommand(0, "c", new InsertObjectCommand("insert")), Runnable::run);
+        ContainerCommand fire = new ContainerCommand(1, "c", new FireAllRulesCommand());
+        CompletableFuture<ContainerExecutionResults> alone = coalescer.submitAlone(fire, Runnable::run, cc -> {
+            applied.add("fire");
+            return new ContainerExecutionResults(cc, new ExecutionResultImpl());
+        });
+        alone.get(5, TimeUnit.SECONDS);
+        insert.get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("insert", "fire"), applied);
+    }
+
+    private void assertInsertsAppliedInOrder() throws Exception {
+        List<CompletableFuture<ContainerExecutionResults>> futures = new ArrayList<>();
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < INSERTS; i++) {
+            ContainerCommand cc = new ContainerCommand(i, ContainerCommand.FLAG_ONE_WAY, "c", new InsertObjectCommand("insert " + i));
+            futures.add(coalescer.submit(cc, Runnable::run));
+            expected.add("insert " + i);
+        }
+        submitted.countDown();
+        for (CompletableFuture<ContainerExecutionResults> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(expected, applied);
+    }
+
+}
@@ -1,21 +1,58 @@
 package org.kie.server.ext.netty.marshaller;
 
+import org.infinispan.protostream.BaseMarshaller;
 import org.infinispan.protostream.ProtobufUtil;
+import org.infinispan.protostream.RawProtoStreamWriter;
 import org.infinispan.protostream.SerializationContext;
+import org.infinispan.protostream.WrappedMessage;
 import org.infinispan.protostream.config.Configuration;
+import org.infinispan.protostream.impl.RawProtoStreamReaderImpl;
+import org.infinispan.protostream.impl.RawProtoStreamWriterImpl;
 import org.kie.server.api.marshalling.Marshaller;
 import org.kie.server.api.marshalling.MarshallingException;
 import org.kie.server.api.marshalling.MarshallingFormat;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class ProtoStreamMarshaller implements Marshaller {
     
+    // buffer of the protobuf writer, flushed to the target stream when full
+    private static final int STREAM_BUFFER_SIZE = 512;
+    
     private SerializationContext ctx =  ProtobufUtil.newSerializationContext(new Configuration.Builder().build());
     
+    private volatile TypeIdTable typeIdTable;
+    
     public SerializationContext getSerializationContext() {
         return ctx;
     }
+    
+    /**
+     * The type id table is built on first use, so all schemas and marshallers must be registered by then.
+     */
+    public TypeIdTable getTypeIdTable() {
+        TypeIdTable table = typeIdTable;
+        if (table == null) {
+            synchronized (this) {
+                table = typeIdTable;
+                if (table == null) {
+                    table = new TypeIdTable(ctx);
+                    typeIdTable = table;
+                }
+            }
+        }
+        return table;
+    }
+    
+    /**
+     * Uses the given type ids, typically the ones published by the server, instead of deriving them.
+     */
+    public void setTypeIdTable(TypeIdTable typeIdTable) {
+        this.typeIdTable = typeIdTable;
+    }
 
     @Override
     public String marshall(Object input) {
@@ -46,6 +83,174 @@ public class ProtoStreamMarshaller implements Marshaller {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public <T> T unmarshallFromByteBuffer(ByteBuffer input, Class<T> type) {
+        try {
+            Object o = ProtobufUtil.fromWrappedByteBuffer(ctx, input);
+            return (T) o;
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+
+    /**
+     * Writes the wrapped message straight to the stream, without building an intermediate byte array.
+     */
+    public void marshallTo(Object input, OutputStream out) {
+        try {
+            RawProtoStreamWriter writer = RawProtoStreamWriterImpl.newInstance(out, STREAM_BUFFER_SIZE);
+            WrappedMessage.writeMessage(ctx, writer, input);
+            writer.flush();
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+    
+    /**
+     * Reads a wrapped message from the stream. The stream must end where the message ends.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T unmarshallFrom(InputStream in, Class<T> type) {
+        try {
+            Object o = WrappedMessage.readMessage(ctx, RawProtoStreamReaderImpl.newInstance(in));
+            return (T) o;
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+
+    /**
+     * Writes the object in compact form: the varint id of its type followed by the raw message. Objects
+     * without a type id, and null, are written as a 0 id followed by the wrapped message.
+     */
+    public void marshallCompactTo(Object input, OutputStream out) {
+        BaseMarshaller<?> marshaller = input != null && ctx.canMarshall(input.getClass()) ? ctx.getMarshaller(input.getClass()) : null;
+        int typeId = marshaller == null ? 0 : getTypeIdTable().getTypeId(marshaller.getTypeName());
+        try {
+            writeVarint(typeId, out);
+            if (typeId == 0) {
+                marshallTo(input, out);
+            } else {
+                ProtobufUtil.writeTo(ctx, out, input);
+            }
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <T> T unmarshallCompactFrom(InputStream in, Class<T> type) {
+        try {
+            int typeId = readVarint(in);
+            if (typeId == 0) {
+                return unmarshallFrom(in, type);
+            }
+            return (T) ProtobufUtil.readFrom(ctx, in, javaClass(typeId));
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <T> T unmarshallCompactFromByteBuffer(ByteBuffer input, Class<T> type) {
+        try {
+            int typeId = readVarint(input);
+            if (typeId == 0) {
+                return unmarshallFromByteBuffer(input, type);
+            }
+            return (T) ProtobufUtil.fromByteBuffer(ctx, input, javaClass(typeId));
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+    
+    /**
+     * @return the protobuf type name of the class, or null if the class has no marshaller
+     */
+    public String getTypeName(Class<?> javaClass) {
+        return ctx.canMarshall(javaClass) ? ctx.getMarshaller(javaClass).getTypeName() : null;
+    }
+    
+    public Class<?> getJavaClass(String typeName) {
+        if (!ctx.canMarshall(typeName)) {
+            throw new MarshallingException("No marshaller for type " + typeName);
+        }
+        return ctx.getMarshaller(typeName).getJavaClass();
+    }
+    
+    /**
+     * Writes the raw message, without its type. The reader must know the type of the message.
+     */
+    public void marshallRawTo(Object input, OutputStream out) {
+        try {
+            ProtobufUtil.writeTo(ctx, out, input);
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+    
+    /**
+     * Reads a raw message of the given type. The stream must end where the message ends.
+     */
+    public <T> T unmarshallRawFrom(InputStream in, Class<T> type) {
+        try {
+            return ProtobufUtil.readFrom(ctx, in, type);
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+    
+    public <T> T unmarshallRawFromByteBuffer(ByteBuffer input, Class<T> type) {
+        try {
+            return ProtobufUtil.fromByteBuffer(ctx, input, type);
+        } catch (IOException e) {
+            throw new MarshallingException("Error marshalling input", e);
+        }
+    }
+    
+    private Class<?> javaClass(int typeId) throws IOException {
+        Class<?> javaClass = getTypeIdTable().getJavaClass(typeId);
+        if (javaClass == null) {
+            throw new IOException("Unknown type id " + typeId);
+        }
+        return javaClass;
+    }
+    
+    private static void writeVarint(int value, OutputStream out) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+    
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
     @Override
     public void dispose() {
 
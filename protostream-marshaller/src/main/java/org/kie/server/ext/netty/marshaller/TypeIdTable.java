@@ -0,0 +1,109 @@
+package org.kie.server.ext.netty.marshaller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.infinispan.protostream.SerializationContext;
+import org.infinispan.protostream.descriptors.Descriptor;
+import org.infinispan.protostream.descriptors.FileDescriptor;
+
+/**
+ * Numeric ids for the message types of a serialization context that have a marshaller, used by the
+ * compact wire format instead of the fully qualified type name.
+ * <p>
+ * Types declaring a type id in their schema keep that id. The other types are numbered in the order
+ * of their full names, starting above the highest declared id. Two contexts with the same schemas
+ * and marshallers therefore get the same table. Id 0 is never assigned.
+ * <p>
+ * A client can also use the table published by the server, so that its ids match even if it does not
+ * have the marshallers of all the types of the container.
+ */
+public class TypeIdTable {
+    
+    private final Map<String, Integer> ids = new HashMap<>();
+    
+    private final Map<Integer, String> typeNames = new HashMap<>();
+    
+    private final Map<Integer, Class<?>> javaClasses = new HashMap<>();
+    
+    public TypeIdTable(SerializationContext ctx) {
+        TreeSet<String> undeclared = new TreeSet<>();
+        int maxId = 0;
+        for (FileDescriptor fd : ctx.getFileDescriptors().values()) {
+            for (Descriptor descriptor : fd.getMessageTypes()) {
+                String typeName = descriptor.getFullName();
+                if (!ctx.canMarshall(typeName)) {
+                    continue;
+                }
+                Integer typeId = descriptor.getTypeId();
+                if (typeId != null && typeId > 0) {
+                    add(ctx, typeName, typeId);
+                    maxId = Math.max(maxId, typeId);
+                } else {
+                    undeclared.add(typeName);
+                }
+            }
+        }
+        for (String typeName : undeclared) {
+            add(ctx, typeName, ++maxId);
+        }
+    }
+    
+    /**
+     * Table with the given ids, restricted to the types the context can marshall.
+     */
+    public TypeIdTable(SerializationContext ctx, Map<Integer, String> typeIds) {
+        for (Map.Entry<Integer, String> entry : typeIds.entrySet()) {
+            if (ctx.canMarshall(entry.getValue())) {
+                add(ctx, entry.getValue(), entry.getKey());
+            }
+        }
+    }
+    
+    private void add(SerializationContext ctx, String typeName, int typeId) {
+        ids.put(typeName, typeId);
+        typeNames.put(typeId, typeName);
+        javaClasses.put(typeId, ctx.getMarshaller(typeName).getJavaClass());
+    }
+    
+    /**
+     * @return the id of the type, or 0 if the type has no id
+     */
+    public int getTypeId(String typeName) {
+        Integer typeId = ids.get(typeName);
+        return typeId == null ? 0 : typeId;
+    }
+    
+    public String getTypeName(int typeId) {
+        return typeNames.get(typeId);
+    }
+    
+    public Class<?> getJavaClass(int typeId) {
+        return javaClasses.get(typeId);
+    }
+    
+    /**
+     * @return the type names by id
+     */
+    public Map<Integer, String> getTypeNames() {
+        return Collections.unmodifiableMap(typeNames);
+    }
+    
+    /**
+     * @return the type names by id, ordered by id
+     */
+    public List<Map.Entry<Integer, String>> getEntries() {
+        List<Map.Entry<Integer, String>> entries = new ArrayList<>(typeNames.entrySet());
+        Collections.sort(entries, (e1, e2) -> e1.getKey().compareTo(e2.getKey()));
+        return entries;
+    }
+    
+    public int size() {
+        return ids.size();
+    }
+
+}